@@ -2,6 +2,7 @@ plugins {
     id("java")
     id("com.gradleup.shadow") version "8.3.0+"
     id("application")
+    id("me.champeau.jmh") version "0.7.2"
 }
 
 group = "com.kryeit"
@@ -60,4 +61,11 @@ application {
 
 tasks.test {
     useJUnitPlatform()
+}
+
+// Benchmarks live in src/jmh/java, run them with ./gradlew jmh
+jmh {
+    fork.set(1)
+    warmupIterations.set(3)
+    iterations.set(5)
 }
\ No newline at end of file
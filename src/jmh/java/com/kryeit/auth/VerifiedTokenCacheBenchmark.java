@@ -0,0 +1,55 @@
+package com.kryeit.auth;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.algorithms.Algorithm;
+import com.auth0.jwt.interfaces.JWTVerifier;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.time.Duration;
+import java.util.Date;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares verifying a user token on every request with going through {@link VerifiedTokenCache}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Threads(4)
+public class VerifiedTokenCacheBenchmark {
+    private JWTVerifier verifier;
+    private VerifiedTokenCache<UUID> cache;
+    private String token;
+
+    @Setup
+    public void setup() {
+        Algorithm algorithm = Algorithm.HMAC256("benchmark-secret");
+        verifier = JWT.require(algorithm).build();
+        cache = new VerifiedTokenCache<>(verifier, jwt -> UUID.fromString(jwt.getClaim("uuid").asString()), 10_000);
+        token = JWT.create()
+                .withClaim("uuid", UUID.randomUUID().toString())
+                .withExpiresAt(new Date(System.currentTimeMillis() + Duration.ofDays(30).toMillis()))
+                .sign(algorithm);
+
+        // Warms the cache, so the cached benchmark only measures hits
+        cache.get(token);
+    }
+
+    @Benchmark
+    public UUID verifyEveryTime() {
+        return UUID.fromString(verifier.verify(token).getClaim("uuid").asString());
+    }
+
+    @Benchmark
+    public UUID cached() {
+        return cache.get(token);
+    }
+}
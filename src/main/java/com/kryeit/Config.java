@@ -1,5 +1,10 @@
 package com.kryeit;
 
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+
 public class Config {
     public static final int apiPort = 6969;
     public static final boolean production = false;
@@ -37,6 +42,23 @@ public class Config {
 
     public static final String authApiSecret = System.getenv("AUTH_API_SECRET");
 
+    // Reverse proxies whose X-Forwarded-For header is trusted for the client IP, comma separated
+    public static final Set<String> trustedProxies = Arrays.stream(
+                    Optional.ofNullable(System.getenv("TRUSTED_PROXIES")).orElse("127.0.0.1,::1,0:0:0:0:0:0:0:1").split(","))
+            .map(String::trim)
+            .filter(proxy -> !proxy.isEmpty())
+            .collect(Collectors.toUnmodifiableSet());
+
+    // Rate limits per route group: requests allowed in a burst, and per minute after it
+    public static final int adminLoginBurst = 5;
+    public static final int adminLoginPerMinute = 5;
+    public static final int loginBurst = 30;
+    public static final int loginPerMinute = 60;
+    public static final int paymentBurst = 5;
+    public static final int paymentPerMinute = 10;
+    public static final int modpackBurst = 3;
+    public static final int modpackPerMinute = 6;
+
     public static final String FRONTEND_DOMAIN = Config.production ?
             "https://kryeit.com" :
             "http://localhost:5173";
@@ -2,14 +2,14 @@ package com.kryeit;
 
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.google.gson.JsonObject;
-import com.kryeit.auth.JsonObjectMapper;
+import com.kryeit.auth.RawJsonMapper;
 import com.kryeit.auth.User;
 import com.kryeit.cosmetics.CosmeticApi;
 import com.kryeit.merch.Order;
 import com.kryeit.merch.Product;
 import com.kryeit.merch.Stock;
 import com.kryeit.panel.auth.Admin;
+import com.kryeit.utils.RawJson;
 import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
 import org.jdbi.v3.core.Jdbi;
@@ -72,8 +72,9 @@ public class Database {
                 return result;
             }
         });
-        JDBI.registerColumnMapper(JsonObject.class, new JsonObjectMapper());
+        JDBI.registerColumnMapper(RawJson.class, new RawJsonMapper());
         DatabaseUtils.createTables();
+        DatabaseUtils.migrate();
 
         JDBI.installPlugin(new Jackson2Plugin());
     }
@@ -1,8 +1,96 @@
 package com.kryeit;
 
 import org.jdbi.v3.core.Jdbi;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
 
 public class DatabaseUtils {
+    private static final Logger logger = LoggerFactory.getLogger(DatabaseUtils.class);
+
+    /**
+     * Schema changes applied on top of {@link #createTables()}, in version order.
+     * Applied migrations are recorded in schema_migrations, so never edit or reorder
+     * an existing entry, add a new version instead.
+     */
+    private static final List<Migration> MIGRATIONS = List.of(
+            new Migration(1, "Index products by name",
+                    "CREATE INDEX IF NOT EXISTS products_name_idx ON products (name)"),
+            new Migration(2, "One stock row per product",
+                    // Older versions could create a second stock row, those have to be merged by hand
+                    """
+                    DO $$
+                    DECLARE duplicates TEXT;
+                    BEGIN
+                        SELECT string_agg('product ' || product_id || ' (stock ids ' || ids || ')', '; ') INTO duplicates
+                        FROM (
+                            SELECT product_id, string_agg(id::text, ', ' ORDER BY id) AS ids
+                            FROM stocks
+                            GROUP BY product_id
+                            HAVING COUNT(*) > 1
+                        ) d;
+                        IF duplicates IS NOT NULL THEN
+                            RAISE EXCEPTION 'Cannot make stocks.product_id unique, duplicate stock rows: %', duplicates;
+                        END IF;
+                    END $$
+                    """,
+                    "CREATE UNIQUE INDEX IF NOT EXISTS stocks_product_id_idx ON stocks (product_id)"),
+            new Migration(3, "Index orders by user",
+                    "CREATE INDEX IF NOT EXISTS orders_uuid_idx ON orders (uuid)"),
+            new Migration(4, "One order per payment transaction",
+                    // Older webhooks could insert an order twice, those have to be removed by hand
+                    """
+                    DO $$
+                    DECLARE duplicates TEXT;
+                    BEGIN
+                        SELECT string_agg('transaction ' || transaction || ' (order ids ' || ids || ')', '; ') INTO duplicates
+                        FROM (
+                            SELECT transaction, string_agg(id::text, ', ' ORDER BY id) AS ids
+                            FROM orders
+                            WHERE transaction IS NOT NULL
+                            GROUP BY transaction
+                            HAVING COUNT(*) > 1
+                        ) d;
+                        IF duplicates IS NOT NULL THEN
+                            RAISE EXCEPTION 'Cannot make orders.transaction unique, duplicate orders: %', duplicates;
+                        END IF;
+                    END $$
+                    """,
+                    "CREATE UNIQUE INDEX IF NOT EXISTS orders_transaction_idx ON orders (transaction)"),
+            new Migration(5, "Revoked tokens",
+                    """
+                    CREATE TABLE IF NOT EXISTS revoked_tokens (
+                        digest VARCHAR(44) PRIMARY KEY,
+                        fingerprint BIGINT NOT NULL,
+                        expires_at TIMESTAMP NOT NULL
+                    )
+                    """,
+                    "CREATE INDEX IF NOT EXISTS revoked_tokens_expires_at_idx ON revoked_tokens (expires_at)"),
+            new Migration(6, "Stock reservations",
+                    "ALTER TABLE stocks ADD COLUMN IF NOT EXISTS reserved BIGINT NOT NULL DEFAULT 0",
+                    """
+                    CREATE TABLE IF NOT EXISTS stock_reservations (
+                        hold_id UUID NOT NULL,
+                        product_id BIGINT NOT NULL,
+                        quantity BIGINT NOT NULL,
+                        expires_at TIMESTAMP NOT NULL,
+                        PRIMARY KEY (hold_id, product_id)
+                    )
+                    """,
+                    "CREATE INDEX IF NOT EXISTS stock_reservations_expires_at_idx ON stock_reservations (expires_at)"),
+            new Migration(7, "Hot stock",
+                    "ALTER TABLE stocks ADD COLUMN IF NOT EXISTS hot BOOLEAN NOT NULL DEFAULT false",
+                    """
+                    CREATE TABLE IF NOT EXISTS hot_stock_journal (
+                        seq BIGSERIAL PRIMARY KEY,
+                        product_id BIGINT NOT NULL,
+                        delta BIGINT NOT NULL,
+                        created TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+                    )
+                    """)
+    );
+
     public static void createTables() {
         Jdbi jdbi = Database.getJdbi();
 
@@ -72,4 +160,47 @@ public class DatabaseUtils {
             """);
         });
     }
-}
\ No newline at end of file
+
+    /**
+     * Applies every pending migration in version order, each in its own transaction
+     * together with its schema_migrations record.
+     */
+    public static void migrate() {
+        Jdbi jdbi = Database.getJdbi();
+
+        jdbi.useHandle(handle -> handle.execute("""
+            CREATE TABLE IF NOT EXISTS schema_migrations (
+                version INT PRIMARY KEY,
+                description VARCHAR(255) NOT NULL,
+                applied TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+            )
+        """));
+
+        for (Migration migration : MIGRATIONS) {
+            jdbi.useTransaction(handle -> {
+                // Serializes instances starting at the same time, the lock is released on commit
+                handle.execute("LOCK TABLE schema_migrations IN EXCLUSIVE MODE");
+
+                boolean applied = handle.createQuery("SELECT EXISTS (SELECT 1 FROM schema_migrations WHERE version = :version)")
+                        .bind("version", migration.version())
+                        .mapTo(Boolean.class)
+                        .one();
+                if (applied) return;
+
+                for (String statement : migration.statements()) {
+                    handle.execute(statement);
+                }
+
+                handle.createUpdate("INSERT INTO schema_migrations (version, description) VALUES (:version, :description)")
+                        .bind("version", migration.version())
+                        .bind("description", migration.description())
+                        .execute();
+
+                logger.info("Applied migration {}: {}", migration.version(), migration.description());
+            });
+        }
+    }
+
+    private record Migration(int version, String description, String... statements) {
+    }
+}
@@ -1,13 +1,25 @@
 package com.kryeit;
 
+import com.kryeit.auth.LastSeen;
 import com.kryeit.auth.LoginApi;
+import com.kryeit.auth.RequestPrincipal;
+import com.kryeit.auth.TokenRevocations;
+import com.kryeit.merch.HotStock;
 import com.kryeit.merch.OrderApi;
 import com.kryeit.merch.ProductApi;
+import com.kryeit.merch.ProductFilterApi;
+import com.kryeit.merch.ProductSearchApi;
 import com.kryeit.merch.ProductStructureApi;
+import com.kryeit.merch.ProductTransferApi;
 import com.kryeit.merch.StockApi;
+import com.kryeit.merch.StockReservations;
+import com.kryeit.panel.MetricsApi;
 import com.kryeit.panel.auth.AdminLoginApi;
 import com.kryeit.stripe.PaymentApi;
 import com.kryeit.stripe.PaymentHandler;
+import com.kryeit.utils.Pagination;
+import com.kryeit.utils.RateLimiter;
+import com.kryeit.utils.Utils;
 import com.stripe.Stripe;
 import io.javalin.Javalin;
 import io.javalin.community.ssl.SslPlugin;
@@ -33,6 +45,10 @@ public class Main {
 
         Stripe.apiKey = Config.stripeApiKey;
 
+        TokenRevocations.start();
+        HotStock.start();
+        StockReservations.start();
+
         Javalin app = Javalin.create(config -> {
             config.registerPlugin(sslPlugin);
 
@@ -48,6 +64,7 @@ public class Main {
                 cors.addRule(it -> {
                     it.allowCredentials = true;
                     it.allowHost("https://servus.kryeit.com", "http://localhost:5173", "http://localhost:5174");
+                    it.exposeHeader(Pagination.NEXT_CURSOR_HEADER);
                 });
             });
 
@@ -55,10 +72,18 @@ public class Main {
             config.validation.register(UUID.class, UUID::fromString);
 
             config.showJavalinBanner = false;
+            config.jsonMapper(Utils.JSON_MAPPER);
 
             config.router.apiBuilder(() -> {
 
                 path("api", () -> {
+                    before(RequestPrincipal::attach);
+
+                    before("admin/login", new RateLimiter("admin-login", Config.adminLoginBurst, Config.adminLoginPerMinute, RateLimiter::byIp));
+                    before("login/*", new RateLimiter("login", Config.loginBurst, Config.loginPerMinute, RateLimiter::byIp));
+                    before("payment/create", new RateLimiter("payment", Config.paymentBurst, Config.paymentPerMinute, RateLimiter::byPrincipal));
+                    before("modpack", new RateLimiter("modpack", Config.modpackBurst, Config.modpackPerMinute, RateLimiter::byIp));
+
                     path("images", () -> {
                         path("products", () -> {
                             path("{name}", () -> {
@@ -75,6 +100,7 @@ public class Main {
                         post("login", AdminLoginApi::login);
                         post("register", AdminLoginApi::register);
                         post("validate", AdminLoginApi::validate);
+                        get("metrics", MetricsApi::getMetrics);
                     });
 
                     path("login", () -> {
@@ -94,11 +120,17 @@ public class Main {
                         get("{id}", StockApi::getStock);
 
                         patch(StockApi::updateStock);
+                        patch("bulk", StockApi::updateStocks);
                     });
 
                     path("products", () -> {
                         get("catalog", ProductStructureApi::getProductCatalog);
                         get("details", ProductStructureApi::getProductDetails);
+                        get("search", ProductSearchApi::search);
+                        get("filter", ProductFilterApi::filter);
+                        post("bulk", ProductApi::createProducts);
+                        get("export", ProductTransferApi::exportProducts);
+                        post("import", ProductTransferApi::importProducts);
 
                         path("{id}", () -> {
                             get(ProductApi::getProduct);
@@ -149,6 +181,8 @@ public class Main {
             });
         }).start();
         app.get("/api/products/images/{productName}/{index}", Main::serveImage);
+
+        LastSeen.start();
     }
 
     public static void serveImage(Context ctx) {
@@ -4,10 +4,8 @@ import com.auth0.jwt.JWT;
 import com.auth0.jwt.JWTCreator;
 import com.auth0.jwt.algorithms.Algorithm;
 import com.auth0.jwt.exceptions.JWTVerificationException;
-import com.auth0.jwt.interfaces.DecodedJWT;
 import com.auth0.jwt.interfaces.JWTVerifier;
 import com.kryeit.Config;
-import io.javalin.http.UnauthorizedResponse;
 
 import java.time.Duration;
 import java.util.Date;
@@ -18,6 +16,12 @@ public class Jwt {
     public static final Algorithm algorithm = Algorithm.HMAC256(Config.jwtSecret);
     private static final long EXPIRATION = Duration.ofDays(30).toMillis();
 
+    private static final JWTVerifier verifier = JWT.require(algorithm).build();
+    private static final VerifiedTokenCache<UUID> verifiedTokens = new VerifiedTokenCache<>(verifier, jwt -> {
+        String uuid = jwt.getClaim("uuid").asString();
+        return uuid == null ? null : UUID.fromString(uuid);
+    }, 10_000);
+
     public static String generateToken(UUID uuid) {
         Date expirationDate = new Date(System.currentTimeMillis() + EXPIRATION);
         JWTCreator.Builder token = JWT.create()
@@ -27,20 +31,30 @@ public class Jwt {
         return token.sign(algorithm);
     }
 
-    public static UUID validateToken(String token) throws JWTVerificationException {
-        if (token == null) return null;
+    /**
+     * Revokes a valid user token, so it is rejected from now on even though it has not expired.
+     *
+     * @throws JWTVerificationException if the token is not a valid user token
+     */
+    public static void revokeToken(String token) throws JWTVerificationException {
+        if (validateToken(token) == null) {
+            throw new JWTVerificationException("The token names no user");
+        }
 
-        JWTVerifier verifier = JWT.require(algorithm).build();
-        DecodedJWT jwt = verifier.verify(token);
+        Date expiresAt = JWT.decode(token).getExpiresAt();
+        long expiration = expiresAt == null ? System.currentTimeMillis() + EXPIRATION : expiresAt.getTime();
+        TokenRevocations.revoke(token, expiration);
+        verifiedTokens.invalidate(token);
+    }
 
-        if (jwt.getClaim("uuid").asString() == null) {
-            return null;
-        }
+    public static UUID validateToken(String token) throws JWTVerificationException {
+        if (token == null) return null;
 
-        if (jwt.getExpiresAt().before(new Date())) {
-            throw new UnauthorizedResponse("Token has expired");
+        if (TokenRevocations.isRevoked(token)) {
+            throw new JWTVerificationException("The token has been revoked");
         }
 
-        return UUID.fromString(jwt.getClaim("uuid").asString());
+        // The verifier rejects expired tokens, and cached tokens are evicted when they expire
+        return verifiedTokens.get(token);
     }
 }
\ No newline at end of file
@@ -0,0 +1,82 @@
+package com.kryeit.auth;
+
+import com.kryeit.Database;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks when users were last seen without writing on every request.
+ *
+ * Requests only record the time in memory. A background task writes every pending
+ * time in a single UPDATE every few seconds, so each user costs at most one row
+ * write per flush interval.
+ */
+public class LastSeen {
+    private static final Logger logger = LoggerFactory.getLogger(LastSeen.class);
+
+    private static final long FLUSH_INTERVAL_SECONDS = 5;
+
+    private static final Map<UUID, Long> PENDING = new ConcurrentHashMap<>();
+
+    private static final ScheduledExecutorService FLUSHER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "last-seen-flusher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Starts the periodic flush, and a final flush on shutdown.
+     */
+    public static void start() {
+        FLUSHER.scheduleWithFixedDelay(LastSeen::flush, FLUSH_INTERVAL_SECONDS, FLUSH_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(LastSeen::flush, "last-seen-shutdown"));
+    }
+
+    public static void touch(UUID uuid) {
+        PENDING.put(uuid, System.currentTimeMillis());
+    }
+
+    /**
+     * Writes every pending time. Entries touched again while flushing stay pending for the next flush.
+     */
+    public static synchronized void flush() {
+        if (PENDING.isEmpty()) {
+            return;
+        }
+
+        Map<UUID, Long> batch = Map.copyOf(PENDING);
+        UUID[] uuids = new UUID[batch.size()];
+        Long[] times = new Long[batch.size()];
+        int i = 0;
+        for (Map.Entry<UUID, Long> entry : batch.entrySet()) {
+            uuids[i] = entry.getKey();
+            times[i] = entry.getValue();
+            i++;
+        }
+
+        try {
+            Database.getJdbi().useHandle(handle -> handle.createUpdate("""
+                            UPDATE users
+                            SET last_seen = to_timestamp(v.millis / 1000.0)::timestamp
+                            FROM unnest(:uuids, :times) AS v(uuid, millis)
+                            WHERE users.uuid = v.uuid
+                            """)
+                    .bindArray("uuids", UUID.class, (Object[]) uuids)
+                    .bindArray("times", Long.class, (Object[]) times)
+                    .execute());
+        } catch (Exception e) {
+            // Kept pending, the next flush retries them
+            logger.error("Failed to flush last seen times of {} users", batch.size(), e);
+            return;
+        }
+
+        batch.forEach(PENDING::remove);
+    }
+}
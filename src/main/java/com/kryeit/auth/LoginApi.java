@@ -17,11 +17,23 @@ public class LoginApi {
 
     /**
      * HTTP POST Request to /api/account/logout
-     * Logs out the user by invalidating their tokens.
+     * Logs out the user by revoking the token of the request until it expires.
      *
      * @param ctx the Javalin HTTP context
      */
     public static void logout(Context ctx) {
+        String token = ctx.cookie("auth");
+        if (token == null) {
+            throw new UnauthorizedResponse("Auth token is missing");
+        }
+
+        try {
+            Jwt.revokeToken(token);
+        } catch (JWTVerificationException e) {
+            throw new UnauthorizedResponse();
+        }
+        ctx.removeCookie("auth");
+        ctx.status(204);
     }
 
     public static User getUser(Context ctx) {
@@ -37,7 +49,7 @@ public class LoginApi {
     public static void getAccount(Context ctx) {
         User user = getUser(ctx);
         User.Data data = user.data();
-        // No need to convert stats as it's already a JSONObject
+        // Stats are written as the raw JSONB text, without parsing them
         ctx.json(Map.of(
                 "uuid", user.uuid(),
                 "username", data.username(),
@@ -124,21 +136,10 @@ public class LoginApi {
         JSONObject body = new JSONObject(decryptedToken);
         UUID uuid = UUID.fromString(body.getString("uuid"));
 
-        User.Data user = Database.getJdbi().withHandle(handle -> handle.createQuery("""
-                        SELECT uuid, username, creation, last_seen, roles, stats
-                        FROM users
-                        WHERE uuid = :uuid
-                        """)
-                .bind("uuid", uuid)
-                .mapTo(User.Data.class)
-                .findOne()
-                .orElse(null));
-
-        if (user == null) {
-            throw new UnauthorizedResponse("User not found");
-        }
+        User.Data user = User.findData(uuid)
+                .orElseThrow(() -> new UnauthorizedResponse("User not found"));
 
-        // Stats is already a JSONObject so it can be directly returned
+        // Stats are written as the raw JSONB text, without parsing them
         ctx.json(Map.of(
                 "uuid", uuid,
                 "username", user.username(),
@@ -178,14 +179,19 @@ public class LoginApi {
             throw new IllegalArgumentException("Invalid action: " + action);
         }
 
-        Database.getJdbi().useHandle(h -> h.createUpdate("""
+        Optional<User.Data> updated = Database.getJdbi().withHandle(h -> h.createQuery("""
         UPDATE users
         SET roles = :roles
         WHERE uuid = :uuid
+        RETURNING username, creation, last_seen, roles, stats
         """)
                 .bind("roles", new ArrayList<>(updatedRoles))
                 .bind("uuid", user.uuid())
-                .execute());
+                .mapTo(User.Data.class)
+                .findOne());
+
+        // Write through, so the next read is served from memory
+        updated.ifPresentOrElse(data -> User.cacheData(user.uuid(), data), () -> User.invalidateData(user.uuid()));
     }
 
     /**
@@ -207,13 +213,13 @@ public class LoginApi {
      * @param ctx the Javalin HTTP context
      */
     public static void validateToken(Context ctx) {
-        String token = ctx.cookie("auth");
-        if (token == null) {
+        RequestPrincipal principal = RequestPrincipal.of(ctx);
+        if (!principal.hasToken()) {
             throw new UnauthorizedResponse();
         }
         UUID uuid;
         try {
-            uuid = Jwt.validateToken(token);
+            uuid = principal.userId();
         } catch (JWTVerificationException e) {
             throw new UnauthorizedResponse();
         }
@@ -222,17 +228,9 @@ public class LoginApi {
             throw new UnauthorizedResponse();
         }
 
-        // Updated to properly handle JSONB column
-        User.Data user = Database.getJdbi().withHandle(handle -> handle.createQuery("""
-                        SELECT uuid, username, creation, last_seen, roles, stats
-                        FROM users
-                        WHERE uuid = :uuid
-                        """)
-                .bind("uuid", uuid)
-                .mapTo(User.Data.class)
-                .one());
+        User.Data user = User.findData(uuid).orElseThrow(UnauthorizedResponse::new);
 
-        // Stats is already a JSONObject so it can be directly returned
+        // Stats are written as the raw JSONB text, without parsing them
         ctx.json(Map.of(
                 "uuid", uuid,
                 "username", user.username(),
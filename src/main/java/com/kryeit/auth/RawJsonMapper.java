@@ -0,0 +1,16 @@
+package com.kryeit.auth;
+
+import com.kryeit.utils.RawJson;
+import org.jdbi.v3.core.mapper.ColumnMapper;
+import org.jdbi.v3.core.statement.StatementContext;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+public class RawJsonMapper implements ColumnMapper<RawJson> {
+    @Override
+    public RawJson map(ResultSet r, int columnNumber, StatementContext ctx) throws SQLException {
+        String json = r.getString(columnNumber);
+        return json == null ? RawJson.EMPTY_OBJECT : new RawJson(json);
+    }
+}
@@ -0,0 +1,103 @@
+package com.kryeit.auth;
+
+import com.kryeit.panel.auth.Admin;
+import com.kryeit.panel.auth.AdminJwt;
+import io.javalin.http.Context;
+
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * The user or admin behind the auth cookie of a request, resolved lazily and at most once.
+ *
+ * A before-handler attaches it to every API request, so token verification and principal
+ * lookups are shared by every API that looks at the caller. Failures are remembered too,
+ * and rethrown to every caller.
+ */
+public class RequestPrincipal {
+    private static final String ATTRIBUTE = "principal";
+
+    private final String token;
+
+    private boolean userResolved;
+    private User user;
+    private RuntimeException userFailure;
+
+    private boolean adminResolved;
+    private Admin admin;
+    private RuntimeException adminFailure;
+
+    private RequestPrincipal(String token) {
+        this.token = token;
+    }
+
+    public static void attach(Context ctx) {
+        ctx.attribute(ATTRIBUTE, new RequestPrincipal(ctx.cookie("auth")));
+    }
+
+    public static RequestPrincipal of(Context ctx) {
+        RequestPrincipal principal = ctx.attribute(ATTRIBUTE);
+        if (principal == null) {
+            // Routes registered outside the API path have no before-handler
+            attach(ctx);
+            principal = ctx.attribute(ATTRIBUTE);
+        }
+        return principal;
+    }
+
+    public boolean hasToken() {
+        return token != null;
+    }
+
+    /**
+     * @return the user the token was issued to, or empty if there is no token or it names no user
+     * @throws com.auth0.jwt.exceptions.JWTVerificationException if the token is not a valid user token
+     */
+    public Optional<User> user() {
+        if (!userResolved) {
+            try {
+                UUID uuid = Jwt.validateToken(token);
+                if (uuid != null) {
+                    user = new User(uuid, null);
+                    LastSeen.touch(uuid);
+                }
+            } catch (RuntimeException e) {
+                userFailure = e;
+            }
+            userResolved = true;
+        }
+
+        if (userFailure != null) {
+            throw userFailure;
+        }
+        return Optional.ofNullable(user);
+    }
+
+    /**
+     * @return the UUID of the user the token was issued to, or null if there is none
+     * @throws com.auth0.jwt.exceptions.JWTVerificationException if the token is not a valid user token
+     */
+    public UUID userId() {
+        return user().map(User::uuid).orElse(null);
+    }
+
+    /**
+     * @return the admin the token was issued to, or empty if there is no token or the admin does not exist
+     * @throws io.javalin.http.UnauthorizedResponse if the token is not a valid admin token
+     */
+    public Optional<Admin> admin() {
+        if (!adminResolved) {
+            try {
+                admin = token == null ? null : Admin.byId(AdminJwt.validateToken(token)).orElse(null);
+            } catch (RuntimeException e) {
+                adminFailure = e;
+            }
+            adminResolved = true;
+        }
+
+        if (adminFailure != null) {
+            throw adminFailure;
+        }
+        return Optional.ofNullable(admin);
+    }
+}
@@ -0,0 +1,157 @@
+package com.kryeit.auth;
+
+import com.kryeit.Database;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Tokens revoked before their expiration, stored in revoked_tokens.
+ *
+ * Revoked tokens are kept in memory as an exact set of digests, fronted by a bloom filter over
+ * a fingerprint computed straight from the token characters. Almost every token checked is not
+ * revoked, and the filter rejects those without a digest, an allocation or a database query.
+ * Expired revocations are pruned periodically, since the verifier rejects those tokens anyway.
+ */
+public class TokenRevocations {
+    private static final Logger logger = LoggerFactory.getLogger(TokenRevocations.class);
+
+    private static final long PRUNE_INTERVAL_MINUTES = 5;
+
+    // 2^20 bits, 128 KiB, keeps false positives below 1% up to about 100k revocations
+    private static final int FILTER_BITS = 1 << 20;
+    private static final int FILTER_HASHES = 7;
+
+    private static final ScheduledExecutorService PRUNER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "token-revocation-pruner");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final Map<String, Revocation> REVOKED = new ConcurrentHashMap<>();
+    private static volatile AtomicLongArray filter = new AtomicLongArray(FILTER_BITS / Long.SIZE);
+
+    /**
+     * Loads the revocations stored by previous runs and schedules pruning.
+     */
+    public static void start() {
+        reload();
+        PRUNER.scheduleWithFixedDelay(TokenRevocations::prune, PRUNE_INTERVAL_MINUTES, PRUNE_INTERVAL_MINUTES, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Revokes a token until it expires.
+     *
+     * @param token the encoded token
+     * @param expiresAt the expiration of the token, in epoch millis
+     */
+    public static void revoke(String token, long expiresAt) {
+        Revocation revocation = new Revocation(VerifiedTokenCache.digest(token), fingerprint(token), expiresAt);
+
+        Database.getJdbi().useHandle(handle -> handle.createUpdate("""
+                        INSERT INTO revoked_tokens (digest, fingerprint, expires_at)
+                        VALUES (:digest, :fingerprint, :expiresAt)
+                        ON CONFLICT (digest) DO NOTHING
+                        """)
+                .bind("digest", revocation.digest())
+                .bind("fingerprint", revocation.fingerprint())
+                .bind("expiresAt", new Timestamp(expiresAt))
+                .execute());
+
+        add(revocation);
+    }
+
+    public static boolean isRevoked(String token) {
+        if (!mightContain(filter, fingerprint(token))) {
+            return false;
+        }
+        return REVOKED.containsKey(VerifiedTokenCache.digest(token));
+    }
+
+    private static synchronized void add(Revocation revocation) {
+        // Added to the exact set first, so a filter hit always finds the digest
+        REVOKED.put(revocation.digest(), revocation);
+        set(filter, revocation.fingerprint());
+    }
+
+    private static void set(AtomicLongArray bits, long fingerprint) {
+        long h1 = fingerprint;
+        long h2 = (fingerprint >>> 32) | 1;
+        for (int i = 0; i < FILTER_HASHES; i++) {
+            int bit = (int) ((h1 + i * h2) & (FILTER_BITS - 1));
+            long mask = 1L << bit;
+            bits.getAndAccumulate(bit >>> 6, mask, (current, m) -> current | m);
+        }
+    }
+
+    private static boolean mightContain(AtomicLongArray bits, long fingerprint) {
+        long h1 = fingerprint;
+        long h2 = (fingerprint >>> 32) | 1;
+        for (int i = 0; i < FILTER_HASHES; i++) {
+            int bit = (int) ((h1 + i * h2) & (FILTER_BITS - 1));
+            if ((bits.get(bit >>> 6) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Drops expired revocations, and picks up the ones stored by other instances.
+     */
+    private static void prune() {
+        try {
+            Database.getJdbi().useHandle(handle -> handle.execute("DELETE FROM revoked_tokens WHERE expires_at <= CURRENT_TIMESTAMP"));
+            reload();
+        } catch (Exception e) {
+            logger.error("Failed to prune revoked tokens", e);
+        }
+    }
+
+    /**
+     * Replaces the in-memory revocations with the stored ones, rebuilding the filter without expired tokens.
+     */
+    private static synchronized void reload() {
+        List<Revocation> stored = Database.getJdbi().withHandle(handle -> handle.createQuery("""
+                        SELECT digest, fingerprint, expires_at
+                        FROM revoked_tokens
+                        WHERE expires_at > CURRENT_TIMESTAMP
+                        """)
+                .map((rs, ctx) -> new Revocation(rs.getString("digest"), rs.getLong("fingerprint"), rs.getTimestamp("expires_at").getTime()))
+                .list());
+
+        stored.forEach(revocation -> REVOKED.put(revocation.digest(), revocation));
+        long now = System.currentTimeMillis();
+        REVOKED.values().removeIf(revocation -> revocation.expiresAt() <= now);
+
+        AtomicLongArray bits = new AtomicLongArray(FILTER_BITS / Long.SIZE);
+        REVOKED.values().forEach(revocation -> set(bits, revocation.fingerprint()));
+        filter = bits;
+    }
+
+    /**
+     * A 64-bit FNV-1a hash of the token characters, finalized with the SplitMix64 mixer.
+     */
+    private static long fingerprint(String token) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < token.length(); i++) {
+            hash ^= token.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+
+        hash = (hash ^ (hash >>> 30)) * 0xbf58476d1ce4e5b9L;
+        hash = (hash ^ (hash >>> 27)) * 0x94d049bb133111ebL;
+        return hash ^ (hash >>> 31);
+    }
+
+    private record Revocation(String digest, long fingerprint, long expiresAt) {
+    }
+}
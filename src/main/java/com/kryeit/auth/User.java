@@ -1,27 +1,35 @@
 package com.kryeit.auth;
 
-import com.google.gson.JsonObject;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
 import com.kryeit.Database;
+import com.kryeit.utils.RawJson;
 import io.javalin.http.Context;
-import org.json.JSONObject;
 
 import java.sql.Timestamp;
+import java.time.Duration;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 
 public class User {
+    // Only roles are written through here, so entries also expire to pick up changes made elsewhere
+    private static final LoadingCache<UUID, Data> DATA = Caffeine.newBuilder()
+            .maximumSize(10_000)
+            .expireAfterWrite(Duration.ofMinutes(1))
+            .build(User::loadData);
+
     private final UUID uuid;
     private Data data;
 
-    private User(UUID uuid, Data data) {
+    User(UUID uuid, Data data) {
         this.uuid = uuid;
         this.data = data;
     }
 
     public Data data() {
         if (data == null) {
-            data = getData();
+            data = findData(uuid).orElseThrow(() -> new IllegalStateException("User not found: " + uuid));
         }
         return data;
     }
@@ -31,18 +39,32 @@ public class User {
     }
 
     public static Optional<User> fromRequest(Context ctx) {
-        String cookie = ctx.cookie("auth");
-        if (cookie == null) {
-            return Optional.empty();
-        }
+        return RequestPrincipal.of(ctx).user();
+    }
 
-        // Read the token and process it
-        UUID userId = Jwt.validateToken(cookie);
+    /**
+     * Returns the data of a user, from the cache when possible.
+     * Unknown users are not cached, so they are picked up as soon as they are created.
+     *
+     * @param uuid the UUID of the user
+     * @return the user data, or empty if the user does not exist
+     */
+    public static Optional<Data> findData(UUID uuid) {
+        return Optional.ofNullable(DATA.get(uuid));
+    }
+
+    /**
+     * Stores freshly written user data, so the next read does not have to query it.
+     */
+    public static void cacheData(UUID uuid, Data data) {
+        DATA.put(uuid, data);
+    }
 
-        return Optional.of(new User(userId, null));
+    public static void invalidateData(UUID uuid) {
+        DATA.invalidate(uuid);
     }
 
-    private Data getData() {
+    private static Data loadData(UUID uuid) {
         return Database.getJdbi().withHandle(h -> h.createQuery("""
                         SELECT username, creation, last_seen, roles, stats
                         FROM users
@@ -50,10 +72,11 @@ public class User {
                         """)
                 .bind("uuid", uuid)
                 .mapTo(Data.class)
-                .first());
+                .findOne()
+                .orElse(null));
     }
 
-    public record Data(String username, Timestamp creation, Timestamp lastSeen, List<Role> roles, JsonObject stats) {
+    public record Data(String username, Timestamp creation, Timestamp lastSeen, List<Role> roles, RawJson stats) {
     }
 
     public enum Role {
@@ -0,0 +1,103 @@
+package com.kryeit.auth;
+
+import com.auth0.jwt.interfaces.DecodedJWT;
+import com.auth0.jwt.interfaces.JWTVerifier;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Date;
+import java.util.function.Function;
+
+/**
+ * Bounded cache of tokens that already passed signature verification.
+ * Entries are keyed by the SHA-256 digest of the token and expire together with it,
+ * so repeated requests of a session skip the HMAC check and claim decoding.
+ *
+ * @param <T> the principal extracted from a verified token
+ */
+public class VerifiedTokenCache<T> {
+    // Upper bound for tokens without an expiration claim
+    private static final long MAX_LIFETIME = Duration.ofHours(1).toMillis();
+
+    private final JWTVerifier verifier;
+    private final Function<DecodedJWT, T> principal;
+    private final Cache<String, Verified<T>> cache;
+
+    /**
+     * @param verifier the verifier used on cache misses
+     * @param principal extracts the principal from a verified token, tokens mapping to null are not cached
+     * @param maximumSize the maximum number of cached tokens
+     */
+    public VerifiedTokenCache(JWTVerifier verifier, Function<DecodedJWT, T> principal, long maximumSize) {
+        this.verifier = verifier;
+        this.principal = principal;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfter(new Expiry<String, Verified<T>>() {
+                    @Override
+                    public long expireAfterCreate(String key, Verified<T> value, long currentTime) {
+                        long remaining = value.expiresAt() - System.currentTimeMillis();
+                        return Duration.ofMillis(Math.max(remaining, 0)).toNanos();
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String key, Verified<T> value, long currentTime, long currentDuration) {
+                        return expireAfterCreate(key, value, currentTime);
+                    }
+
+                    @Override
+                    public long expireAfterRead(String key, Verified<T> value, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .build();
+    }
+
+    /**
+     * Returns the principal of a token, verifying it only if it is not cached yet.
+     *
+     * @param token the encoded token
+     * @return the principal, or null if the token carries none
+     * @throws com.auth0.jwt.exceptions.JWTVerificationException if the token is invalid or expired
+     */
+    public T get(String token) {
+        Verified<T> verified = cache.get(digest(token), key -> {
+            DecodedJWT jwt = verifier.verify(token);
+            T value = principal.apply(jwt);
+            if (value == null) {
+                return null;
+            }
+
+            Date expiresAt = jwt.getExpiresAt();
+            long maxExpiresAt = System.currentTimeMillis() + MAX_LIFETIME;
+            return new Verified<>(value, expiresAt == null ? maxExpiresAt : expiresAt.getTime());
+        });
+
+        return verified == null ? null : verified.value();
+    }
+
+    public void invalidate(String token) {
+        cache.invalidate(digest(token));
+    }
+
+    /**
+     * The SHA-256 digest of a token, Base64 encoded.
+     */
+    public static String digest(String token) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.UTF_8));
+            return Base64.getEncoder().encodeToString(hash);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private record Verified<T>(T value, long expiresAt) {
+    }
+}
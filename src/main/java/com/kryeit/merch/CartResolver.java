@@ -0,0 +1,87 @@
+package com.kryeit.merch;
+
+import com.kryeit.Database;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Resolves the products of a checkout cart, with their price, stock and discount, in a single query,
+ * so validating a cart and building its line items costs the same for any cart size.
+ */
+public class CartResolver {
+
+    /**
+     * @param cart the cart, keyed by product ID with a quantity per item
+     * @return the resolved cart, with its lines in cart order
+     * @throws IllegalArgumentException if a product does not exist
+     */
+    public static ResolvedCart resolve(JSONObject cart) {
+        Map<Long, Integer> quantities = StockUtils.cartQuantities(cart);
+
+        Map<Long, Line> byId = new HashMap<>();
+        Database.getJdbi().useHandle(handle -> handle.createQuery("""
+                        SELECT p.*, COALESCE(s.quantity - s.reserved, 0) AS available, COALESCE(s.discount, 0) AS discount
+                        FROM products p
+                        LEFT JOIN stocks s ON s.product_id = p.id
+                        WHERE p.id = ANY(:ids)
+                        """)
+                .bindArray("ids", Long.class, quantities.keySet().toArray())
+                .map((rs, ctx) -> {
+                    Product product = ctx.findRowMapperFor(Product.class).orElseThrow().map(rs, ctx);
+                    // Hot products keep their live stock in memory
+                    long available = HotStock.available(product.id()).orElse(rs.getLong("available"));
+                    return new Line(product, quantities.get(product.id()), available, rs.getDouble("discount"));
+                })
+                .forEach(line -> byId.put(line.product().id(), line)));
+
+        List<Line> lines = new ArrayList<>();
+        quantities.keySet().forEach(productId -> {
+            Line line = byId.get(productId);
+            if (line == null) {
+                throw new IllegalArgumentException("Invalid product ID: " + productId);
+            }
+            lines.add(line);
+        });
+        return new ResolvedCart(lines);
+    }
+
+    /**
+     * @param product the product
+     * @param quantity the quantity in the cart
+     * @param available the stock not sold or held by other checkouts
+     * @param discount the discount of the product
+     */
+    public record Line(Product product, int quantity, long available, double discount) {
+        public boolean isStocked() {
+            return available >= quantity;
+        }
+    }
+
+    public record ResolvedCart(List<Line> lines) {
+        public boolean isStocked() {
+            return lines.stream().allMatch(Line::isStocked);
+        }
+
+        public boolean hasVirtualProduct() {
+            return lines.stream().anyMatch(line -> line.product().virtual());
+        }
+
+        public boolean hasNonVirtualProduct() {
+            return lines.stream().anyMatch(line -> !line.product().virtual());
+        }
+
+        /**
+         * @return the quantity of every product, keyed by product ID
+         */
+        public Map<Long, Integer> quantities() {
+            Map<Long, Integer> quantities = new LinkedHashMap<>();
+            lines.forEach(line -> quantities.put(line.product().id(), line.quantity()));
+            return quantities;
+        }
+    }
+}
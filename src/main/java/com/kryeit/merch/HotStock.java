@@ -0,0 +1,321 @@
+package com.kryeit.merch;
+
+import com.kryeit.Database;
+import org.jdbi.v3.core.Handle;
+import org.jdbi.v3.core.HandleCallback;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Optional in-memory stock for products flagged with stocks.hot, meant for limited drops
+ * where every checkout would otherwise lock the same few stock rows.
+ *
+ * The available units of a hot product live in an atomic counter, and checkouts take from it
+ * with a compare-and-set instead of a row lock. stocks.reserved is not used for hot products,
+ * their holds are only recorded in stock_reservations. Sales are appended to hot_stock_journal,
+ * which a background flusher folds into stocks.quantity as one aggregated update per product.
+ *
+ * On startup every counter is built as quantity plus the unflushed journal minus the active holds,
+ * so a crash loses nothing that was committed. From then on counters are only moved, never replaced,
+ * so no take is lost to a rebuild. The counters are local to this process, so hot products must only
+ * be sold through a single instance.
+ */
+public class HotStock {
+    private static final Logger logger = LoggerFactory.getLogger(HotStock.class);
+
+    private static final long FLUSH_INTERVAL_SECONDS = 2;
+
+    private static final ScheduledExecutorService FLUSHER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "hot-stock-flusher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Available units by product ID, for hot products only
+    private static final Map<Long, AtomicLong> COUNTERS = new ConcurrentHashMap<>();
+    // Products whose counter changed since the catalog was last refreshed
+    private static final Set<Long> DIRTY = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Recovers the counters and starts the write-behind flusher.
+     */
+    public static void start() {
+        recover();
+        FLUSHER.scheduleWithFixedDelay(HotStock::flushSafely, FLUSH_INTERVAL_SECONDS, FLUSH_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(HotStock::flushSafely, "hot-stock-shutdown"));
+    }
+
+    public static boolean isHot(long productId) {
+        return COUNTERS.containsKey(productId);
+    }
+
+    /**
+     * @return the units of a hot product not sold or held, or empty if the product is not hot
+     */
+    public static OptionalLong available(long productId) {
+        AtomicLong counter = COUNTERS.get(productId);
+        return counter == null ? OptionalLong.empty() : OptionalLong.of(counter.get());
+    }
+
+    /**
+     * Takes every quantity from the counters, or nothing if any product is short.
+     *
+     * @param quantities the quantity to take by hot product ID
+     * @return whether the quantities were taken
+     */
+    public static boolean take(Map<Long, Integer> quantities) {
+        Map<Long, Integer> taken = new HashMap<>();
+        for (Map.Entry<Long, Integer> entry : quantities.entrySet()) {
+            if (!tryTake(entry.getKey(), entry.getValue())) {
+                give(taken);
+                return false;
+            }
+            taken.put(entry.getKey(), entry.getValue());
+        }
+        return true;
+    }
+
+    private static boolean tryTake(long productId, long quantity) {
+        AtomicLong counter = COUNTERS.get(productId);
+        if (counter == null) {
+            return false;
+        }
+
+        long current;
+        do {
+            current = counter.get();
+            if (current < quantity) {
+                return false;
+            }
+        } while (!counter.compareAndSet(current, current - quantity));
+
+        DIRTY.add(productId);
+        return true;
+    }
+
+    /**
+     * Gives quantities back to the counters, such as when a hold is released.
+     */
+    public static void give(Map<Long, ? extends Number> quantities) {
+        quantities.forEach((productId, quantity) -> {
+            AtomicLong counter = COUNTERS.get(productId);
+            if (counter != null) {
+                counter.addAndGet(quantity.longValue());
+                DIRTY.add(productId);
+            }
+        });
+    }
+
+    /**
+     * Journals the sale of hot products in the transaction of the caller, skipping virtual products.
+     * The counters are not touched, the units are expected to be taken already.
+     *
+     * @param quantities the quantity sold by hot product ID
+     * @return the quantities that were journaled, by product ID
+     */
+    static Map<Long, Long> journalSale(Handle handle, Map<Long, ? extends Number> quantities) {
+        Map<Long, Long> journaled = new HashMap<>();
+        if (quantities.isEmpty()) {
+            return journaled;
+        }
+
+        Long[] ids = quantities.keySet().toArray(new Long[0]);
+        Long[] amounts = new Long[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            amounts[i] = quantities.get(ids[i]).longValue();
+        }
+
+        handle.createQuery("""
+                        INSERT INTO hot_stock_journal (product_id, delta)
+                        SELECT v.product_id, -v.quantity
+                        FROM unnest(:ids, :quantities) AS v(product_id, quantity)
+                        JOIN products p ON p.id = v.product_id
+                        WHERE p.virtual = false
+                        RETURNING product_id, -delta AS quantity
+                        """)
+                .bindArray("ids", Long.class, (Object[]) ids)
+                .bindArray("quantities", Long.class, (Object[]) amounts)
+                .map((rs, ctx) -> Map.entry(rs.getLong("product_id"), rs.getLong("quantity")))
+                .forEach(entry -> journaled.merge(entry.getKey(), entry.getValue(), Long::sum));
+        return journaled;
+    }
+
+    /**
+     * Sells hot products without a hold, in the transaction of the caller. The units are taken
+     * from the counters once it commits, even if they run short, since the sale is already paid.
+     *
+     * @return what to run once the transaction commits
+     */
+    static Runnable sell(Handle handle, Map<Long, Long> quantities) {
+        Map<Long, Long> journaled = journalSale(handle, quantities);
+        return () -> journaled.forEach((productId, quantity) -> {
+            AtomicLong counter = COUNTERS.get(productId);
+            if (counter != null) {
+                counter.addAndGet(-quantity);
+                DIRTY.add(productId);
+            }
+        });
+    }
+
+    /**
+     * Runs a transaction that sets stock quantities directly, then moves the counter of every hot product
+     * by how much its quantity changed. The rows of hot products are locked before the write, so the flusher
+     * cannot fold sales into them in between, while checkouts keep taking from the counters.
+     *
+     * @return the result of the callback
+     */
+    public static synchronized <T, X extends Exception> T writeQuantities(HandleCallback<T, X> callback) throws X {
+        Map<Long, Long> changes = new HashMap<>();
+        T result = Database.getJdbi().inTransaction(handle -> {
+            Map<Long, Long> before = lockQuantities(handle);
+            T value = callback.withHandle(handle);
+            lockQuantities(handle).forEach((productId, quantity) -> {
+                long change = quantity - before.getOrDefault(productId, quantity);
+                if (change != 0) {
+                    changes.put(productId, change);
+                }
+            });
+            return value;
+        });
+
+        give(changes);
+        return result;
+    }
+
+    private static Map<Long, Long> lockQuantities(Handle handle) {
+        Map<Long, Long> quantities = new HashMap<>();
+        handle.createQuery("""
+                        SELECT product_id, quantity
+                        FROM stocks
+                        WHERE hot
+                        ORDER BY product_id
+                        FOR UPDATE
+                        """)
+                .map((rs, ctx) -> Map.entry(rs.getLong("product_id"), rs.getLong("quantity")))
+                .forEach(entry -> quantities.put(entry.getKey(), entry.getValue()));
+        return quantities;
+    }
+
+    /**
+     * Folds the journal into stocks.quantity, one update per product, in a single transaction.
+     * Entries appended while flushing are left for the next flush.
+     */
+    public static synchronized void flush() {
+        List<Long> flushed = Database.getJdbi().inTransaction(handle -> handle.createQuery("""
+                        WITH flushed AS (
+                            DELETE FROM hot_stock_journal
+                            RETURNING product_id, delta
+                        ), totals AS (
+                            SELECT product_id, SUM(delta) AS delta
+                            FROM flushed
+                            GROUP BY product_id
+                        )
+                        UPDATE stocks s
+                        SET quantity = s.quantity + t.delta
+                        FROM totals t
+                        WHERE s.product_id = t.product_id
+                        RETURNING s.product_id
+                        """)
+                .mapTo(Long.class)
+                .list());
+
+        // Removed before refreshing, so changes made meanwhile are picked up by this refresh or the next one
+        List<Long> changed = new ArrayList<>(flushed);
+        for (Iterator<Long> dirty = DIRTY.iterator(); dirty.hasNext(); ) {
+            Long productId = dirty.next();
+            dirty.remove();
+            changed.add(productId);
+        }
+        if (!changed.isEmpty()) {
+            ProductCatalog.refreshProducts(changed);
+        }
+    }
+
+    private static void flushSafely() {
+        try {
+            flush();
+        } catch (Exception e) {
+            // The journal is kept, the next flush retries it
+            logger.error("Failed to flush the hot stock journal", e);
+        }
+    }
+
+    /**
+     * Flags or unflags a product as hot.
+     * Its holds are moved between stocks.reserved and the counter, so none are lost on the way.
+     * Best done before a drop starts, as checkouts of the product during the switch may see either mode.
+     */
+    public static synchronized void setHot(long productId, boolean hot) {
+        Map<Long, Long> available = Database.getJdbi().inTransaction(handle -> {
+            handle.createUpdate("""
+                            UPDATE stocks s
+                            SET hot = :hot,
+                                reserved = CASE WHEN :hot THEN 0 ELSE COALESCE((
+                                    SELECT SUM(r.quantity) FROM stock_reservations r WHERE r.product_id = s.product_id
+                                ), 0) END
+                            WHERE s.product_id = :product_id
+                            """)
+                    .bind("hot", hot)
+                    .bind("product_id", productId)
+                    .execute();
+            return hot ? load(handle, "AND s.product_id = :product_id", productId) : Map.<Long, Long>of();
+        });
+
+        if (hot) {
+            available.forEach((id, units) -> COUNTERS.putIfAbsent(id, new AtomicLong(units)));
+        } else {
+            COUNTERS.remove(productId);
+        }
+        ProductCatalog.refreshProduct(productId);
+    }
+
+    // Builds every counter on startup, before any checkout can take from them
+    private static synchronized void recover() {
+        Map<Long, Long> available = Database.getJdbi().withHandle(handle -> load(handle, "", null));
+        available.forEach((productId, units) -> COUNTERS.putIfAbsent(productId, new AtomicLong(units)));
+        if (!available.isEmpty()) {
+            logger.info("Recovered the stock of {} hot products", available.size());
+        }
+    }
+
+    // The available units are the quantity, plus the sales not flushed yet, minus the active holds
+    private static Map<Long, Long> load(Handle handle, String condition, Long productId) {
+        var query = handle.createQuery("""
+                        SELECT s.product_id, s.quantity + COALESCE(j.pending, 0) - COALESCE(h.held, 0) AS available
+                        FROM stocks s
+                        LEFT JOIN (
+                            SELECT product_id, SUM(delta) AS pending
+                            FROM hot_stock_journal
+                            GROUP BY product_id
+                        ) j ON j.product_id = s.product_id
+                        LEFT JOIN (
+                            SELECT product_id, SUM(quantity) AS held
+                            FROM stock_reservations
+                            GROUP BY product_id
+                        ) h ON h.product_id = s.product_id
+                        WHERE s.hot <condition>
+                        """)
+                .define("condition", condition);
+        if (productId != null) {
+            query.bind("product_id", productId);
+        }
+
+        Map<Long, Long> available = new HashMap<>();
+        query.map((rs, ctx) -> Map.entry(rs.getLong("product_id"), rs.getLong("available")))
+                .forEach(entry -> available.put(entry.getKey(), entry.getValue()));
+        return available;
+    }
+}
@@ -2,7 +2,7 @@ package com.kryeit.merch;
 
 import com.auth0.jwt.exceptions.JWTVerificationException;
 import com.kryeit.Database;
-import com.kryeit.auth.Jwt;
+import com.kryeit.auth.RequestPrincipal;
 import com.kryeit.panel.auth.Admin;
 import com.kryeit.utils.Utils;
 import io.javalin.http.Context;
@@ -91,14 +91,14 @@ public class OrderApi {
     }
 
     public static void getUserOrders(Context ctx) {
-        String token = ctx.cookie("auth");
-        if (token == null) {
+        RequestPrincipal principal = RequestPrincipal.of(ctx);
+        if (!principal.hasToken()) {
             throw new UnauthorizedResponse("Auth token is missing");
         }
 
         UUID uuid;
         try {
-            uuid = Jwt.validateToken(token);
+            uuid = principal.userId();
         } catch (JWTVerificationException e) {
             throw new UnauthorizedResponse();
         }
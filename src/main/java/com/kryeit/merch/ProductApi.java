@@ -1,44 +1,58 @@
 package com.kryeit.merch;
 
 import com.kryeit.Database;
-import com.kryeit.panel.auth.AdminJwt;
+import com.kryeit.auth.RequestPrincipal;
 import com.kryeit.storage.ProductImages;
+import com.kryeit.utils.Pagination;
 import com.kryeit.utils.Utils;
+import io.javalin.http.BadRequestResponse;
 import io.javalin.http.Context;
 import io.javalin.http.UnauthorizedResponse;
 import io.javalin.http.UploadedFile;
+import org.jdbi.v3.core.mapper.CaseStrategy;
+import org.jdbi.v3.core.mapper.MapMappers;
+import org.jdbi.v3.core.statement.PreparedBatch;
+import org.json.JSONArray;
 import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 public class ProductApi {
     private static final Logger logger = LoggerFactory.getLogger(ProductApi.class);
 
+    private static final Map<String, String> PRODUCT_FIELDS = new LinkedHashMap<>();
+
+    // Upper bound on the sizes times colors of a single bulk creation
+    private static final int MAX_VARIANTS = 200;
+
+    static {
+        for (String column : List.of("id", "name", "description", "price", "size", "color",
+                "material", "virtual", "listed", "creation", "edition")) {
+            PRODUCT_FIELDS.put(column, column);
+        }
+    }
+
     public static void handleSecurity(Context ctx) {
-        String token = ctx.cookie("auth");
+        RequestPrincipal principal = RequestPrincipal.of(ctx);
 
-        if (token == null) {
+        if (!principal.hasToken()) {
             throw new UnauthorizedResponse("Auth token is missing");
         }
 
-        long id = AdminJwt.validateToken(token);
-
         // Check if the user is an admin
-        boolean isAdmin = Database.getJdbi().withHandle(handle ->
-                handle.createQuery("SELECT EXISTS (SELECT 1 FROM admins WHERE id = :id)")
-                        .bind("id", id)
-                        .mapTo(Boolean.class)
-                        .one()
-        );
-
-        if (!isAdmin) {
+        if (principal.admin().isEmpty()) {
             throw new UnauthorizedResponse("User is not an admin");
         }
     }
@@ -57,13 +71,7 @@ public class ProductApi {
      * @param ctx the Javalin HTTP context
      */
     public static void createProduct(Context ctx) {
-        String token = ctx.cookie("auth");
-
-        if (token == null) {
-            throw new UnauthorizedResponse("Auth token is missing");
-        }
-
-        AdminJwt.validateToken(token);
+        handleSecurity(ctx);
 
         JSONObject body = new JSONObject(ctx.body());
         String name = body.getString("name");
@@ -97,10 +105,101 @@ public class ProductApi {
 
         // Setup stock
         StockApi.setupStock(product.id());
+        ProductCatalog.refresh(product.name());
 
         ctx.json(product);
     }
 
+    /**
+     * HTTP POST Request to /api/products/bulk
+     * Creates every size and color variant of a product in one transaction,
+     * each with an empty stock entry.
+     *
+     * JSON Parameters:
+     * - name: The name of the product.
+     * - description: The description of the product.
+     * - price: The price of the product.
+     * - material (optional): The material of the product.
+     * - virtual (optional): Whether the product is virtual.
+     * - listed (optional): Whether the product is listed.
+     * - sizes (optional): The sizes to create, one variant per size and color.
+     * - colors (optional): The colors to create, one variant per size and color.
+     *   At most 200 variants can be created at once.
+     *
+     * @param ctx the Javalin HTTP context
+     */
+    public static void createProducts(Context ctx) {
+        handleSecurity(ctx);
+
+        JSONObject body = new JSONObject(ctx.body());
+        String name = body.getString("name");
+        String description = body.getString("description");
+        long price = body.getLong("price");
+        String material = body.optString("material", null);
+        boolean virtual = "true".equals(body.optString("virtual", null));
+        boolean listed = "true".equals(body.optString("listed", null));
+
+        List<String> sizes = axis(body.optJSONArray("sizes"));
+        List<String> colors = axis(body.optJSONArray("colors"));
+        if ((long) sizes.size() * colors.size() > MAX_VARIANTS) {
+            throw new BadRequestResponse("At most " + MAX_VARIANTS + " variants can be created at once");
+        }
+
+        List<Long> ids = Database.getJdbi().inTransaction(handle -> {
+            PreparedBatch products = handle.prepareBatch("""
+                    INSERT INTO products (name, description, price, size, color, material, virtual, listed)
+                    VALUES (:name, :description, :price, :size, :color, :material, :virtual, :listed)
+                    """);
+            for (String color : colors) {
+                for (String size : sizes) {
+                    products.bind("name", name)
+                            .bind("description", description)
+                            .bind("price", price)
+                            .bind("size", size)
+                            .bind("color", color)
+                            .bind("material", material)
+                            .bind("virtual", virtual)
+                            .bind("listed", listed)
+                            .add();
+                }
+            }
+            List<Long> created = products.executePreparedBatch("id")
+                    .mapTo(Long.class)
+                    .list();
+
+            PreparedBatch stocks = handle.prepareBatch("""
+                    INSERT INTO stocks (product_id, quantity, discount)
+                    VALUES (:product_id, 0, 0)
+                    """);
+            for (long id : created) {
+                stocks.bind("product_id", id).add();
+            }
+            stocks.execute();
+
+            return created;
+        });
+
+        ProductCatalog.refresh(name);
+
+        ctx.status(201).json(ids);
+    }
+
+    /**
+     * Reads one axis of the variant matrix. A missing or empty axis yields a single null value,
+     * so a product without sizes still gets one variant per color. Repeated values are kept once.
+     */
+    private static List<String> axis(JSONArray values) {
+        if (values == null || values.isEmpty()) {
+            return Collections.singletonList(null);
+        }
+
+        Set<String> axis = new LinkedHashSet<>();
+        for (int i = 0; i < values.length(); i++) {
+            axis.add(values.getString(i));
+        }
+        return new ArrayList<>(axis);
+    }
+
     /**
      * HTTP PATCH Request to /api/products
      * Updates a product by its ID.
@@ -201,24 +300,45 @@ public class ProductApi {
             }
         }
 
+        ProductCatalog.refresh(previousName, product.name());
+
         ctx.json(product);
     }
 
     /**
      * HTTP GET Request to /api/products
-     * Retrieves a list of all products.
+     * Retrieves a page of products ordered by ID.
+     *
+     * Query Parameters:
+     * - after, limit, fields: see {@link Pagination}.
      *
      * @param ctx the Javalin HTTP context
      */
     public static void getProducts(Context ctx) {
-        List<Product> products = Database.getJdbi().withHandle(handle -> handle.createQuery("""
-            SELECT id, name, description, price, size, color, material, virtual, listed, creation, edition
-            FROM products
-            """)
-                .mapTo(Product.class)
-                .list());
+        Pagination.Page page = Pagination.fromRequest(ctx, PRODUCT_FIELDS);
 
-        ctx.json(products);
+        if (ProductCatalog.isNotModified(ctx)) return;
+
+        Database.getJdbi().useHandle(handle -> {
+            var query = handle.createQuery("""
+                SELECT <columns>
+                FROM products
+                WHERE id > :after
+                ORDER BY id
+                LIMIT :limit
+                """)
+                    .define("columns", page.columns())
+                    .bind("after", page.after())
+                    .bind("limit", page.limit() + 1);
+
+            if (page.projected()) {
+                page.respond(ctx, query.configure(MapMappers.class, m -> m.setCaseChange(CaseStrategy.NOP))
+                        .mapToMap()
+                        .list(), row -> ((Number) row.get("id")).longValue());
+            } else {
+                page.respond(ctx, query.mapTo(Product.class).list(), Product::id);
+            }
+        });
     }
 
     /**
@@ -233,6 +353,8 @@ public class ProductApi {
     public static void getProduct(Context ctx) {
         long id = Utils.getIdFromPath(ctx);
 
+        if (ProductCatalog.isNotModified(ctx)) return;
+
         Product product = Database.getJdbi().withHandle(handle -> handle.createQuery("""
                 SELECT id, name, description, price, size, color, material, virtual, listed, creation, edition
                 FROM products
@@ -302,6 +424,8 @@ public class ProductApi {
                 ctx.status(500).result("Failed to delete product images: " + e.getMessage());
             }
         }
+
+        ProductCatalog.refresh(productName);
     }
 
     public static void uploadImage(Context ctx) {
@@ -317,6 +441,7 @@ public class ProductApi {
 
             byte[] imageData = file.content().readAllBytes();
             ProductImages.uploadImage(productName, imageData);
+            ProductCatalog.refresh(productName);
 
             ctx.status(201).json(new JSONObject().put("message", "Image uploaded successfully."));
         } catch (IOException e) {
@@ -340,6 +465,7 @@ public class ProductApi {
 
         try {
             ProductImages.deleteImage(productName, imageIndex);
+            ProductCatalog.refresh(productName);
             ctx.status(200).result("Image deleted successfully.");
         } catch (IOException e) {
             ctx.status(500).result("Failed to delete image: " + e.getMessage());
@@ -385,6 +511,7 @@ public class ProductApi {
 
         try {
             ProductImages.swap(productName, index1, index2);
+            ProductCatalog.refresh(productName);
             ctx.status(200).result("Images swapped successfully.");
         } catch (IOException e) {
             ctx.status(500).result("Failed to swap images: " + e.getMessage());
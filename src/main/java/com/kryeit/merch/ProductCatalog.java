@@ -0,0 +1,195 @@
+package com.kryeit.merch;
+
+import com.kryeit.Database;
+import com.kryeit.utils.PrecompressedJson;
+import com.kryeit.utils.Utils;
+import io.javalin.http.Context;
+import io.javalin.http.Header;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Immutable in-memory snapshot of the storefront catalog.
+ *
+ * The snapshot is loaded on first access and swapped atomically afterwards.
+ * Every write to products, stocks or product images refreshes only the
+ * product names it touched, so serving the catalog never hits the database.
+ *
+ * Each of those writes also bumps the catalog version, which the product
+ * read endpoints turn into a strong ETag to answer conditional requests.
+ * The catalog and product details are kept pre-serialized per version.
+ */
+public class ProductCatalog {
+    private static final Logger logger = LoggerFactory.getLogger(ProductCatalog.class);
+
+    private static final Object LOCK = new Object();
+    private static final AtomicReference<Snapshot> SNAPSHOT = new AtomicReference<>();
+
+    // Keeps ETags handed out by a previous process from matching after a restart
+    private static final String EPOCH = Long.toString(System.currentTimeMillis(), 36);
+    private static final AtomicLong VERSION = new AtomicLong();
+
+    public static Snapshot snapshot() {
+        Snapshot snapshot = SNAPSHOT.get();
+        if (snapshot != null) {
+            return snapshot;
+        }
+
+        synchronized (LOCK) {
+            snapshot = SNAPSHOT.get();
+            if (snapshot == null) {
+                snapshot = load();
+                SNAPSHOT.set(snapshot);
+            }
+            return snapshot;
+        }
+    }
+
+    /**
+     * Rebuilds the catalog entries of the given product names.
+     * Names that no longer have listed variants are dropped from the snapshot.
+     *
+     * @param names the product names that changed
+     */
+    public static void refresh(String... names) {
+        refresh(Arrays.asList(names));
+    }
+
+    public static void refresh(Collection<String> names) {
+        synchronized (LOCK) {
+            Snapshot current = SNAPSHOT.get();
+            if (current == null) {
+                // Nothing loaded yet, the first read will see the change
+                VERSION.incrementAndGet();
+                return;
+            }
+
+            try {
+                Map<String, Map<String, Object>> entries = new TreeMap<>(current.entries());
+                for (String name : new HashSet<>(names)) {
+                    if (name == null) continue;
+
+                    List<ProductStructureApi.Variant> variants = ProductStructureApi.loadVariants(name, true).get(name);
+                    if (variants == null) {
+                        entries.remove(name);
+                    } else {
+                        entries.put(name, ProductStructureApi.buildEntry(name, variants, false));
+                    }
+                }
+                SNAPSHOT.set(Snapshot.of(entries, VERSION.incrementAndGet()));
+            } catch (RuntimeException e) {
+                // Drop the snapshot so the next read reloads it from scratch
+                logger.error("Failed to refresh catalog for {}", names, e);
+                SNAPSHOT.set(null);
+                VERSION.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Drops the whole snapshot after writes that touch too many products to refresh by name.
+     * The next read reloads it.
+     */
+    public static void invalidate() {
+        synchronized (LOCK) {
+            SNAPSHOT.set(null);
+            VERSION.incrementAndGet();
+        }
+    }
+
+    /**
+     * Refreshes the catalog entries of the products with the given IDs.
+     *
+     * @param productIds the IDs of the products that changed
+     */
+    public static void refreshProducts(Collection<Long> productIds) {
+        if (productIds.isEmpty()) {
+            return;
+        }
+
+        List<String> names = Database.getJdbi().withHandle(handle -> handle.createQuery("""
+                SELECT DISTINCT name
+                FROM products
+                WHERE id IN (<product_ids>)
+                """)
+                .bindList("product_ids", productIds)
+                .mapTo(String.class)
+                .list());
+
+        refresh(names);
+    }
+
+    public static void refreshProduct(long productId) {
+        refreshProducts(List.of(productId));
+    }
+
+    public static long version() {
+        return VERSION.get();
+    }
+
+    public static String tag(long version) {
+        return EPOCH + "-" + version;
+    }
+
+    /**
+     * Tags the response with the current catalog ETag and answers 304 Not Modified
+     * when the request already carries it in If-None-Match.
+     * Must be called before the response data is read, so the tag is never newer than the data.
+     *
+     * @param ctx the Javalin HTTP context
+     * @return true if the response was completed with 304 and the handler should return
+     */
+    public static boolean isNotModified(Context ctx) {
+        String etag = "\"" + tag(version()) + "\"";
+        ctx.header(Header.ETAG, etag);
+        ctx.header(Header.CACHE_CONTROL, "no-cache");
+
+        if (Utils.matchesETag(ctx.header(Header.IF_NONE_MATCH), etag)) {
+            ctx.status(304);
+            return true;
+        }
+        return false;
+    }
+
+    private static Snapshot load() {
+        // Read before the data, so the snapshot is never tagged newer than what it holds
+        long version = VERSION.get();
+
+        Map<String, Map<String, Object>> entries = new TreeMap<>();
+        ProductStructureApi.loadVariants(null, true)
+                .forEach((name, variants) -> entries.put(name, ProductStructureApi.buildEntry(name, variants, false)));
+
+        return Snapshot.of(entries, version);
+    }
+
+    /**
+     * @param version the catalog version the snapshot was built at
+     * @param entries catalog entries keyed by product name
+     * @param catalog the catalog entries in name order, as served by /api/products/catalog
+     * @param payload the serialized catalog
+     * @param details serialized product details built on demand for this version, keyed by product name
+     */
+    public record Snapshot(long version, Map<String, Map<String, Object>> entries, List<Map<String, Object>> catalog,
+                           PrecompressedJson payload, Map<String, PrecompressedJson> details) {
+        static Snapshot of(Map<String, Map<String, Object>> entries, long version) {
+            List<Map<String, Object>> catalog = List.copyOf(entries.values());
+            return new Snapshot(version, Collections.unmodifiableMap(entries), catalog,
+                    PrecompressedJson.of(catalog), new ConcurrentHashMap<>());
+        }
+
+        public String tag() {
+            return ProductCatalog.tag(version);
+        }
+    }
+}
@@ -0,0 +1,278 @@
+package com.kryeit.merch;
+
+import io.javalin.http.Context;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.IntStream;
+
+/**
+ * Faceted filtering of listed product variants over in-memory bitmap indexes.
+ *
+ * Every variant gets a bit position, and each attribute value maps to the set of
+ * positions that carry it. Indexes are rebuilt once per catalog version,
+ * so filter queries never touch the database.
+ */
+public class ProductFilterApi {
+    private static final int DEFAULT_LIMIT = 100;
+    private static final int MAX_LIMIT = 500;
+
+    private static final AtomicReference<Index> INDEX = new AtomicReference<>();
+
+    /**
+     * HTTP GET Request to /api/products/filter
+     * Retrieves the listed product variants matching every given filter,
+     * together with facet counts for color, size, material and virtual.
+     * Values of the same filter are combined with OR, different filters with AND.
+     * Each facet is counted as if its own filter was not applied.
+     *
+     * Query Parameters:
+     * - color (optional, repeatable): The color, with or without the leading #.
+     * - size (optional, repeatable): The size.
+     * - material (optional, repeatable): The material.
+     * - virtual (optional): Whether the product is virtual.
+     * - minPrice (optional): The minimum price, inclusive.
+     * - maxPrice (optional): The maximum price, inclusive.
+     * - inStock (optional): Only return variants with stock left when true.
+     * - offset (optional): The number of variants to skip (default is 0).
+     * - limit (optional): The maximum number of variants to return (default is 100, at most 500).
+     *
+     * @param ctx the Javalin HTTP context
+     */
+    public static void filter(Context ctx) {
+        int offset = ctx.queryParamAsClass("offset", Integer.class)
+                .check(o -> o >= 0, "offset must not be negative")
+                .getOrDefault(0);
+        int limit = Math.min(ctx.queryParamAsClass("limit", Integer.class)
+                .check(l -> l > 0, "limit must be positive")
+                .getOrDefault(DEFAULT_LIMIT), MAX_LIMIT);
+
+        Index index = index();
+
+        List<String> colors = ctx.queryParams("color").stream()
+                .map(color -> color.startsWith("#") ? color : "#" + color)
+                .toList();
+        BitSet color = index.any(index.colors(), colors);
+        BitSet size = index.any(index.sizes(), ctx.queryParams("size"));
+        BitSet material = index.any(index.materials(), ctx.queryParams("material"));
+
+        String virtualParam = ctx.queryParam("virtual");
+        BitSet virtual = virtualParam == null ? null : index.virtual(Boolean.parseBoolean(virtualParam));
+
+        Long minPrice = ctx.queryParamAsClass("minPrice", Long.class).allowNullable().get();
+        Long maxPrice = ctx.queryParamAsClass("maxPrice", Long.class).allowNullable().get();
+        BitSet price = minPrice == null && maxPrice == null ? null : index.priceRange(minPrice, maxPrice);
+
+        BitSet inStock = Boolean.parseBoolean(ctx.queryParam("inStock")) ? index.inStock() : null;
+
+        BitSet matches = index.and(color, size, material, virtual, price, inStock);
+
+        List<Map<String, Object>> products = new ArrayList<>();
+        int position = matches.nextSetBit(0);
+        for (int skipped = 0; position >= 0 && skipped < offset; skipped++) {
+            position = matches.nextSetBit(position + 1);
+        }
+        for (; position >= 0 && products.size() < limit; position = matches.nextSetBit(position + 1)) {
+            products.add(index.toJson(position));
+        }
+
+        Map<String, Object> facets = new LinkedHashMap<>();
+        facets.put("color", index.count(index.colors(), index.and(size, material, virtual, price, inStock)));
+        facets.put("size", index.count(index.sizes(), index.and(color, material, virtual, price, inStock)));
+        facets.put("material", index.count(index.materials(), index.and(color, size, virtual, price, inStock)));
+
+        BitSet virtualMask = index.and(color, size, material, price, inStock);
+        facets.put("virtual", Map.of(
+                "true", index.and(virtualMask, index.virtual(true)).cardinality(),
+                "false", index.and(virtualMask, index.virtual(false)).cardinality()
+        ));
+
+        ctx.json(Map.of(
+                "total", matches.cardinality(),
+                "products", products,
+                "facets", facets
+        ));
+    }
+
+    private static Index index() {
+        // Read before loading, so an index is never tagged newer than what it holds
+        long version = ProductCatalog.version();
+
+        Index index = INDEX.get();
+        if (index != null && index.version() == version) {
+            return index;
+        }
+
+        List<ProductStructureApi.Variant> variants = new ArrayList<>();
+        ProductStructureApi.loadVariants(null, true).values().forEach(variants::addAll);
+
+        // Concurrent rebuilds of the same version are harmless, the last one wins
+        index = Index.build(version, variants);
+        INDEX.set(index);
+        return index;
+    }
+
+    /**
+     * @param version the catalog version the index was built at
+     * @param variants every listed variant, by bit position
+     * @param all a bitmap with every position set
+     * @param colors positions by color
+     * @param sizes positions by size
+     * @param materials positions by material
+     * @param virtuals positions of virtual variants
+     * @param inStock positions of variants with stock left
+     * @param byPrice positions sorted by ascending price
+     */
+    private record Index(long version, ProductStructureApi.Variant[] variants, BitSet all,
+                         Map<String, BitSet> colors, Map<String, BitSet> sizes, Map<String, BitSet> materials,
+                         BitSet virtuals, BitSet inStock, int[] byPrice) {
+
+        static Index build(long version, List<ProductStructureApi.Variant> list) {
+            ProductStructureApi.Variant[] variants = list.toArray(new ProductStructureApi.Variant[0]);
+            BitSet all = new BitSet(variants.length);
+            Map<String, BitSet> colors = new TreeMap<>();
+            Map<String, BitSet> sizes = new HashMap<>();
+            Map<String, BitSet> materials = new TreeMap<>();
+            BitSet virtuals = new BitSet(variants.length);
+            BitSet inStock = new BitSet(variants.length);
+
+            for (int i = 0; i < variants.length; i++) {
+                Product product = variants[i].product();
+                all.set(i);
+                set(colors, product.color(), i);
+                set(sizes, product.size(), i);
+                set(materials, product.material(), i);
+                if (product.virtual()) virtuals.set(i);
+                if (variants[i].stock() > 0) inStock.set(i);
+            }
+
+            // Sizes are listed in display order, unknown sizes first by name
+            Map<String, BitSet> sizesInOrder = new LinkedHashMap<>();
+            sizes.entrySet().stream()
+                    .sorted(Comparator.comparingInt((Map.Entry<String, BitSet> e) -> ProductStructureApi.sizeRank(e.getKey()))
+                            .thenComparing(Map.Entry::getKey))
+                    .forEach(e -> sizesInOrder.put(e.getKey(), e.getValue()));
+
+            int[] byPrice = IntStream.range(0, variants.length)
+                    .boxed()
+                    .sorted((a, b) -> Long.compare(variants[a].product().price(), variants[b].product().price()))
+                    .mapToInt(Integer::intValue)
+                    .toArray();
+
+            return new Index(version, variants, all, colors, sizesInOrder, materials, virtuals, inStock, byPrice);
+        }
+
+        private static void set(Map<String, BitSet> index, String value, int position) {
+            if (value != null) {
+                index.computeIfAbsent(value, v -> new BitSet()).set(position);
+            }
+        }
+
+        /**
+         * @return the positions carrying any of the values, or null when there is no filter
+         */
+        BitSet any(Map<String, BitSet> index, List<String> values) {
+            if (values.isEmpty()) {
+                return null;
+            }
+
+            BitSet result = new BitSet(variants.length);
+            for (String value : values) {
+                BitSet positions = index.get(value);
+                if (positions != null) result.or(positions);
+            }
+            return result;
+        }
+
+        BitSet virtual(boolean virtual) {
+            if (virtual) {
+                return virtuals;
+            }
+            BitSet result = (BitSet) all.clone();
+            result.andNot(virtuals);
+            return result;
+        }
+
+        BitSet priceRange(Long min, Long max) {
+            int from = min == null ? 0 : firstAtLeast(min);
+            int to = max == null ? byPrice.length : firstAbove(max);
+
+            BitSet result = new BitSet(variants.length);
+            for (int i = from; i < to; i++) {
+                result.set(byPrice[i]);
+            }
+            return result;
+        }
+
+        private int firstAtLeast(long price) {
+            return search(price, false);
+        }
+
+        private int firstAbove(long price) {
+            return search(price, true);
+        }
+
+        /**
+         * @return the first position in price order whose price is at least, or strictly above when exclusive, the given price
+         */
+        private int search(long price, boolean exclusive) {
+            int low = 0;
+            int high = byPrice.length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                long current = variants[byPrice[middle]].product().price();
+                if (exclusive ? current <= price : current < price) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * Intersects the given filters, null filters match everything.
+         */
+        BitSet and(BitSet... filters) {
+            BitSet result = (BitSet) all.clone();
+            for (BitSet filter : filters) {
+                if (filter != null) result.and(filter);
+            }
+            return result;
+        }
+
+        Map<String, Integer> count(Map<String, BitSet> index, BitSet mask) {
+            Map<String, Integer> counts = new LinkedHashMap<>();
+            index.forEach((value, positions) -> {
+                BitSet matching = (BitSet) positions.clone();
+                matching.and(mask);
+                if (!matching.isEmpty()) counts.put(value, matching.cardinality());
+            });
+            return counts;
+        }
+
+        Map<String, Object> toJson(int position) {
+            ProductStructureApi.Variant variant = variants[position];
+            Product product = variant.product();
+
+            Map<String, Object> json = new HashMap<>();
+            json.put("id", product.id());
+            json.put("name", product.name());
+            json.put("price", product.price());
+            json.put("size", product.size());
+            json.put("color", product.color());
+            json.put("material", product.material());
+            json.put("virtual", product.virtual());
+            json.put("stock", variant.stock());
+            json.put("discount", variant.discount());
+            return json;
+        }
+    }
+}
@@ -1,48 +1,47 @@
 package com.kryeit.merch;
 
-import com.kryeit.Database;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
 
+/**
+ * All variants of a product name, loaded with their stock in a single query
+ * into a color → size → id matrix. Matrices are cached per catalog version,
+ * so any product, stock or image write invalidates them.
+ */
 public class ProductGroup {
 
+    // Stale versions are reloaded on access, the size bound drops names that are no longer asked for
+    private static final Cache<String, Matrix> CACHE = Caffeine.newBuilder()
+            .maximumSize(1_000)
+            .build();
+
     final List<String> sizeOrder = List.of("XS", "S", "M", "L", "XL", "XXL");
 
     String name;
+    private final Matrix matrix;
 
     public ProductGroup(String name) {
         this.name = name;
+        this.matrix = matrix(name);
     }
 
     public List<Long> getProducts() {
-        return Database.getJdbi().withHandle(handle ->
-                handle.createQuery("""
-            SELECT id
-            FROM products
-            WHERE name = :name
-            """)
-                        .bind("name", name)
-                        .mapTo(Long.class)
-                        .list()
-        );
+        return matrix.products().stream()
+                .map(Product::id)
+                .collect(Collectors.toList());
     }
 
     public List<String> getSizesByColor(String color) {
-        List<String> sizes = Database.getJdbi().withHandle(handle ->
-                handle.createQuery("""
-        SELECT size
-        FROM products
-        WHERE color = :color AND name = :name
-        """)
-                        .bind("color", "#" + color)
-                        .bind("name", name)
-                        .mapTo(String.class)
-                        .list()
-        );
+        Set<String> sizes = matrix.ids().getOrDefault("#" + color, Map.of()).keySet();
 
         return sizeOrder.stream()
                 .filter(sizes::contains)
@@ -50,16 +49,8 @@ public class ProductGroup {
     }
 
     public List<String> getSizes() {
-        Set<String> sizes = new LinkedHashSet<>(Database.getJdbi().withHandle(handle ->
-                handle.createQuery("""
-            SELECT size
-            FROM products
-            WHERE name = :name
-            """)
-                        .bind("name", name)
-                        .mapTo(String.class)
-                        .list()
-        ));
+        Set<String> sizes = new LinkedHashSet<>();
+        matrix.ids().values().forEach(bySize -> sizes.addAll(bySize.keySet()));
 
         return sizeOrder.stream()
                 .filter(sizes::contains)
@@ -67,55 +58,56 @@ public class ProductGroup {
     }
 
     public int getStock() {
-        List<Long> productIds = getProducts();
-        if (productIds.isEmpty()) {
-            return 0;
-        }
-        return Database.getJdbi().withHandle(handle ->
-                handle.createQuery("""
-        SELECT SUM(quantity)
-        FROM stocks
-        WHERE product_id IN (<products>)
-        """)
-                        .bindList("products", productIds)
-                        .mapTo(Integer.class)
-                        .one()
-        );
+        return matrix.stock();
     }
 
     public HashMap<String, List<Product>> getProductsByColor() {
-        List<Product> products = Database.getJdbi().withHandle(handle ->
-                handle.createQuery("""
-    SELECT id, name, description, price, size, color, material, virtual, listed
-    FROM products
-    WHERE name = :name
-    """)
-                        .bind("name", name)
-                        .mapTo(Product.class)
-                        .list()
-        );
-
-        return products.stream()
+        return matrix.products().stream()
                 .collect(Collectors.groupingBy(Product::color, HashMap::new, Collectors.toList()));
     }
 
     public long getProductBySizeAndColor(String size, String color) {
-        return Database.getJdbi().withHandle(handle ->
-                handle.createQuery("""
-            SELECT id
-            FROM products
-            WHERE name = :name AND size = :size AND color = :color
-            """)
-                        .bind("name", name)
-                        .bind("size", size)
-                        .bind("color", "#" + color)
-                        .mapTo(Long.class)
-                        .findOne()
-                        .orElse(-1L)
-        );
+        return matrix.ids().getOrDefault("#" + color, Map.of()).getOrDefault(size, -1L);
     }
 
+    private static Matrix matrix(String name) {
+        // Read before loading, so a matrix is never tagged newer than what it holds
+        long version = ProductCatalog.version();
 
+        Matrix cached = CACHE.getIfPresent(name);
+        if (cached != null && cached.version() == version) {
+            return cached;
+        }
 
+        List<ProductStructureApi.Variant> variants = ProductStructureApi.loadVariants(name, false)
+                .getOrDefault(name, List.of());
+
+        List<Product> products = new ArrayList<>();
+        Map<String, Map<String, Long>> ids = new LinkedHashMap<>();
+        int stock = 0;
+        for (ProductStructureApi.Variant variant : variants) {
+            Product product = variant.product();
+            products.add(product);
+            ids.computeIfAbsent(product.color(), c -> new LinkedHashMap<>()).put(product.size(), product.id());
+            stock += variant.stock();
+        }
 
+        Matrix matrix = new Matrix(version, products, ids, stock);
+        if (products.isEmpty()) {
+            // Only real product names are cached, so lookups of unknown names cannot grow the cache
+            CACHE.invalidate(name);
+        } else {
+            CACHE.put(name, matrix);
+        }
+        return matrix;
+    }
+
+    /**
+     * @param version the catalog version the matrix was loaded at
+     * @param products every variant of the product
+     * @param ids variant IDs by color, then by size
+     * @param stock the total stock of every variant
+     */
+    private record Matrix(long version, List<Product> products, Map<String, Map<String, Long>> ids, int stock) {
+    }
 }
@@ -0,0 +1,228 @@
+package com.kryeit.merch;
+
+import io.javalin.http.BadRequestResponse;
+import io.javalin.http.Context;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Ranked product search over an in-memory inverted index.
+ *
+ * The index is built from the {@link ProductCatalog} snapshot and rebuilt whenever
+ * the snapshot changes, so searching never touches the database.
+ */
+public class ProductSearchApi {
+    private static final int DEFAULT_LIMIT = 20;
+    private static final int MAX_LIMIT = 50;
+
+    // Field weights, a name hit ranks above the same hit in the description
+    private static final float NAME_WEIGHT = 3f;
+    private static final float MATERIAL_WEIGHT = 1.5f;
+    private static final float COLOR_WEIGHT = 1f;
+    private static final float DESCRIPTION_WEIGHT = 1f;
+
+    // Match weights, an exact term ranks above a prefix, which ranks above a typo
+    private static final float EXACT_MATCH = 1f;
+    private static final float PREFIX_MATCH = 0.6f;
+    private static final float FUZZY_MATCH = 0.3f;
+
+    private static final AtomicReference<Index> INDEX = new AtomicReference<>();
+
+    /**
+     * HTTP GET Request to /api/products/search
+     * Searches listed products by name, description, material and color.
+     * Every query term must match, either exactly, as a prefix or with a small typo.
+     *
+     * Query Parameters:
+     * - q: The search query.
+     * - offset (optional): The number of results to skip (default is 0).
+     * - limit (optional): The maximum number of results to return (default is 20, at most 50).
+     *
+     * @param ctx the Javalin HTTP context
+     */
+    public static void search(Context ctx) {
+        String q = ctx.queryParam("q");
+        if (q == null || q.isBlank()) {
+            throw new BadRequestResponse("Query is required");
+        }
+
+        int offset = ctx.queryParamAsClass("offset", Integer.class)
+                .check(o -> o >= 0, "offset must not be negative")
+                .getOrDefault(0);
+        int limit = Math.min(ctx.queryParamAsClass("limit", Integer.class)
+                .check(l -> l > 0, "limit must be positive")
+                .getOrDefault(DEFAULT_LIMIT), MAX_LIMIT);
+
+        Index index = index();
+        List<Hit> hits = index.search(tokenize(q));
+
+        List<Map<String, Object>> results = new ArrayList<>();
+        for (Hit hit : hits.subList(Math.min(offset, hits.size()), Math.min(offset + limit, hits.size()))) {
+            results.add(index.entries().get(hit.document()));
+        }
+
+        ctx.json(Map.of(
+                "total", hits.size(),
+                "results", results
+        ));
+    }
+
+    private static Index index() {
+        ProductCatalog.Snapshot snapshot = ProductCatalog.snapshot();
+        Index index = INDEX.get();
+        if (index != null && index.version() == snapshot.version()) {
+            return index;
+        }
+
+        // Concurrent rebuilds of the same snapshot are harmless, the last one wins
+        index = Index.build(snapshot);
+        INDEX.set(index);
+        return index;
+    }
+
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null) {
+            return tokens;
+        }
+
+        for (String token : text.toLowerCase().split("[^\\p{L}\\p{N}]+")) {
+            if (!token.isEmpty()) {
+                tokens.add(token);
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * Levenshtein distance, giving up as soon as it exceeds the maximum.
+     */
+    private static int distance(String a, String b, int max) {
+        if (Math.abs(a.length() - b.length()) > max) {
+            return max + 1;
+        }
+
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = j;
+        }
+
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            int rowMin = current[0];
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                current[j] = Math.min(Math.min(current[j - 1] + 1, previous[j] + 1), previous[j - 1] + cost);
+                rowMin = Math.min(rowMin, current[j]);
+            }
+            if (rowMin > max) {
+                return max + 1;
+            }
+
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return previous[b.length()];
+    }
+
+    private record Hit(int document, float score) {
+    }
+
+    /**
+     * @param version the catalog version the index was built from
+     * @param entries the catalog entries, indexed by document number
+     * @param postings every term mapped to the weight it carries in each document
+     */
+    private record Index(long version, List<Map<String, Object>> entries, NavigableMap<String, Map<Integer, Float>> postings) {
+
+        @SuppressWarnings("unchecked")
+        static Index build(ProductCatalog.Snapshot snapshot) {
+            List<Map<String, Object>> entries = snapshot.catalog();
+            NavigableMap<String, Map<Integer, Float>> postings = new TreeMap<>();
+
+            for (int document = 0; document < entries.size(); document++) {
+                Map<String, Object> entry = entries.get(document);
+                add(postings, document, (String) entry.get("name"), NAME_WEIGHT);
+                add(postings, document, (String) entry.get("material"), MATERIAL_WEIGHT);
+                add(postings, document, (String) entry.get("description"), DESCRIPTION_WEIGHT);
+                for (Map<String, Object> colorVariant : (List<Map<String, Object>>) entry.get("colorVariants")) {
+                    add(postings, document, (String) colorVariant.get("color"), COLOR_WEIGHT);
+                }
+            }
+
+            return new Index(snapshot.version(), entries, postings);
+        }
+
+        private static void add(NavigableMap<String, Map<Integer, Float>> postings, int document, String text, float weight) {
+            for (String term : tokenize(text)) {
+                postings.computeIfAbsent(term, t -> new HashMap<>())
+                        .merge(document, weight, Math::max);
+            }
+        }
+
+        List<Hit> search(List<String> terms) {
+            Map<Integer, Float> scores = null;
+
+            for (String term : terms) {
+                Map<Integer, Float> termScores = match(term);
+
+                if (scores == null) {
+                    scores = termScores;
+                } else {
+                    // Every term has to match
+                    scores.keySet().retainAll(termScores.keySet());
+                    scores.replaceAll((document, score) -> score + termScores.get(document));
+                }
+
+                if (scores.isEmpty()) {
+                    return List.of();
+                }
+            }
+
+            List<Hit> hits = new ArrayList<>();
+            if (scores != null) {
+                scores.forEach((document, score) -> hits.add(new Hit(document, score)));
+            }
+            hits.sort((a, b) -> a.score() != b.score()
+                    ? Float.compare(b.score(), a.score())
+                    : Integer.compare(a.document(), b.document()));
+            return hits;
+        }
+
+        private Map<Integer, Float> match(String term) {
+            Map<Integer, Float> scores = new HashMap<>();
+
+            Map<Integer, Float> exact = postings.get(term);
+            if (exact != null) {
+                exact.forEach((document, weight) -> scores.merge(document, weight * EXACT_MATCH, Math::max));
+            }
+
+            for (Map.Entry<String, Map<Integer, Float>> prefixed : postings.subMap(term, false, term + Character.MAX_VALUE, false).entrySet()) {
+                prefixed.getValue().forEach((document, weight) -> scores.merge(document, weight * PREFIX_MATCH, Math::max));
+            }
+
+            // Short terms would match almost anything with a typo allowed
+            int maxDistance = term.length() >= 8 ? 2 : term.length() >= 4 ? 1 : 0;
+            if (maxDistance > 0) {
+                for (Map.Entry<String, Map<Integer, Float>> candidate : postings.entrySet()) {
+                    String candidateTerm = candidate.getKey();
+                    if (candidateTerm.equals(term)) continue;
+
+                    if (distance(term, candidateTerm, maxDistance) <= maxDistance) {
+                        candidate.getValue().forEach((document, weight) -> scores.merge(document, weight * FUZZY_MATCH, Math::max));
+                    }
+                }
+            }
+
+            return scores;
+        }
+    }
+}
@@ -2,146 +2,41 @@ package com.kryeit.merch;
 
 import com.kryeit.Database;
 import com.kryeit.storage.ProductImages;
+import com.kryeit.utils.PrecompressedJson;
 import io.javalin.http.Context;
 
 import java.util.*;
-import java.util.stream.Collectors;
 
 /**
  * API for providing structured product information to the frontend
  * in a format that's easier to consume.
  */
 public class ProductStructureApi {
+    // Display order of sizes, the same order the variant query sorts by
+    private static final List<String> SIZES = List.of("XS", "S", "M", "L", "XL", "XXL");
+
+    // Cached in place of the details of unknown names, so they are not looked up again in the same version
+    private static final PrecompressedJson NOT_FOUND = new PrecompressedJson(new byte[0], new byte[0]);
+    // Bounds how many names a snapshot caches, unknown names included
+    private static final int MAX_CACHED_DETAILS = 10_000;
 
     /**
      * Returns a complete product catalog structure that includes all variants
      * organized by product name, with colors and sizes properly nested.
+     * Served from the in-memory {@link ProductCatalog} snapshot.
      *
      * GET /api/products/catalog
      *
      * @param ctx the Javalin HTTP context
      */
     public static void getProductCatalog(Context ctx) {
-        // Fetch all listed products
-        List<Product> allProducts = Database.getJdbi().withHandle(handle -> handle.createQuery("""
-            SELECT id, name, description, price, size, color, material, virtual, listed, creation, edition
-            FROM products
-            WHERE listed = true
-            ORDER BY name
-            """)
-                .mapTo(Product.class)
-                .list());
-
-        // Group by product name
-        Map<String, List<Product>> productsByName = allProducts.stream()
-                .collect(Collectors.groupingBy(Product::name));
-
-        List<Map<String, Object>> catalog = new ArrayList<>();
-
-        for (Map.Entry<String, List<Product>> entry : productsByName.entrySet()) {
-            String productName = entry.getKey();
-            List<Product> variants = entry.getValue();
-            Product firstVariant = variants.get(0);
-
-            // If any variant has a null color, collapse all into a single group
-            boolean hasNullColor = variants.stream().anyMatch(p -> p.color() == null);
-            Map<String, List<Product>> variantsByColor;
-            if (hasNullColor) {
-                variantsByColor = new HashMap<>();
-                variantsByColor.put("default", variants);
-            } else {
-                variantsByColor = variants.stream()
-                        .collect(Collectors.groupingBy(Product::color));
-            }
-
-            List<Map<String, Object>> colorVariants = new ArrayList<>();
-            for (Map.Entry<String, List<Product>> colorEntry : variantsByColor.entrySet()) {
-                String colorKey = colorEntry.getKey();
-                List<Product> colorProducts = colorEntry.getValue();
-
-                // Use null for output if using the default group
-                String outputColor = "default".equals(colorKey) ? null : colorKey;
-                String colorCode = (outputColor != null && outputColor.startsWith("#"))
-                        ? outputColor.substring(1)
-                        : outputColor;
-
-                // Total stock for this color group
-                List<Long> productIds = colorProducts.stream()
-                        .map(Product::id)
-                        .collect(Collectors.toList());
-
-                int totalStock = Database.getJdbi().withHandle(handle ->
-                        handle.createQuery("""
-                        SELECT COALESCE(SUM(quantity), 0)
-                        FROM stocks
-                        WHERE product_id IN (<product_ids>)
-                        """)
-                                .bindList("product_ids", productIds)
-                                .mapTo(Integer.class)
-                                .one()
-                );
-
-                // Images for the product
-                List<String> images;
-                try {
-                    images = ProductImages.getImages(productName);
-                } catch (Exception e) {
-                    images = new ArrayList<>();
-                }
-
-                // Size variants
-                List<Map<String, Object>> sizeVariants = new ArrayList<>();
-                List<String> sizeOrder = List.of("XS", "S", "M", "L", "XL", "XXL");
-                for (Product p : colorProducts) {
-                    int stock = Database.getJdbi().withHandle(handle ->
-                            handle.createQuery("""
-                            SELECT COALESCE(quantity, 0)
-                            FROM stocks
-                            WHERE product_id = :product_id
-                            """)
-                                    .bind("product_id", p.id())
-                                    .mapTo(Integer.class)
-                                    .one()
-                    );
-                    Map<String, Object> sizeVariant = new HashMap<>();
-                    sizeVariant.put("id", p.id());
-                    sizeVariant.put("size", p.size());
-                    sizeVariant.put("stock", stock);
-                    sizeVariants.add(sizeVariant);
-                }
-                // Sort sizes
-                sizeVariants.sort((a, b) -> {
-                    String sizeA = (String) a.get("size");
-                    String sizeB = (String) b.get("size");
-                    int indexA = sizeOrder.indexOf(sizeA);
-                    int indexB = sizeOrder.indexOf(sizeB);
-                    return Integer.compare(indexA, indexB);
-                });
-
-                Map<String, Object> colorVariant = new HashMap<>();
-                colorVariant.put("color", outputColor);
-                colorVariant.put("colorCode", colorCode);
-                colorVariant.put("stock", totalStock);
-                colorVariant.put("sizes", sizeVariants);
-                colorVariant.put("images", images);
-                colorVariants.add(colorVariant);
-            }
-
-            Map<String, Object> productEntry = new HashMap<>();
-            productEntry.put("name", productName);
-            productEntry.put("description", firstVariant.description());
-            productEntry.put("price", firstVariant.price());
-            productEntry.put("virtual", firstVariant.virtual());
-            productEntry.put("material", firstVariant.material());
-            productEntry.put("colorVariants", colorVariants);
-            catalog.add(productEntry);
-        }
-
-        ctx.json(catalog);
+        ProductCatalog.Snapshot snapshot = ProductCatalog.snapshot();
+        snapshot.payload().write(ctx, snapshot.tag());
     }
 
     /**
-     * Returns complete information about a specific product, including all its variants
+     * Returns complete information about a specific product, including all its variants.
+     * Served from a per-version cache on the {@link ProductCatalog} snapshot.
      *
      * GET /api/products/details?name={name}
      *
@@ -154,104 +49,131 @@ public class ProductStructureApi {
             return;
         }
 
-        // Get all variants of the product
-        List<Product> variants = Database.getJdbi().withHandle(handle -> handle.createQuery("""
-            SELECT id, name, description, price, size, color, material, virtual, listed, creation, edition
-            FROM products
-            WHERE name = :name
-            """)
-                .bind("name", productName)
-                .mapTo(Product.class)
-                .list());
+        ProductCatalog.Snapshot snapshot = ProductCatalog.snapshot();
+        Map<String, PrecompressedJson> cache = snapshot.details();
+        PrecompressedJson details = cache.get(productName);
+        if (details == null) {
+            // Loaded outside of the map, so the query never blocks other names.
+            // Concurrent loads of the same name are harmless, the first one is kept.
+            List<Variant> variants = loadVariants(productName, false).get(productName);
+            details = variants == null ? NOT_FOUND : PrecompressedJson.of(buildEntry(productName, variants, true));
+            if (cache.size() < MAX_CACHED_DETAILS) {
+                PrecompressedJson previous = cache.putIfAbsent(productName, details);
+                if (previous != null) details = previous;
+            }
+        }
 
-        if (variants.isEmpty()) {
+        if (details == NOT_FOUND) {
             ctx.status(404).result("Product not found");
             return;
         }
 
-        // If any variant has a null color, collapse all into one group
-        boolean hasNullColor = variants.stream().anyMatch(p -> p.color() == null);
-        Map<String, List<Product>> variantsByColor;
+        details.write(ctx, snapshot.tag());
+    }
+
+    /**
+     * Loads product variants joined with their stock in a single query.
+     * Rows come back grouped by name and color, with sizes in display order.
+     *
+     * @param name the product name to load, or null for every product
+     * @param listedOnly whether to skip unlisted variants
+     * @return the variants keyed by product name, in name order
+     */
+    static Map<String, List<Variant>> loadVariants(String name, boolean listedOnly) {
+        StringBuilder sql = new StringBuilder("""
+            SELECT p.id, p.name, p.description, p.price, p.size, p.color, p.material, p.virtual, p.listed, p.creation, p.edition,
+                   COALESCE(s.quantity - s.reserved, 0) AS quantity, COALESCE(s.discount, 0) AS discount
+            FROM products p
+            LEFT JOIN stocks s ON s.product_id = p.id
+            WHERE TRUE
+            """);
+
+        if (name != null) {
+            sql.append(" AND p.name = :name");
+        }
+        if (listedOnly) {
+            sql.append(" AND p.listed = true");
+        }
+        sql.append(" ORDER BY p.name, p.color, COALESCE(array_position(ARRAY['XS', 'S', 'M', 'L', 'XL', 'XXL'], p.size::text), 0), p.id");
+
+        List<Variant> rows = Database.getJdbi().withHandle(handle -> {
+            var query = handle.createQuery(sql.toString());
+            if (name != null) query.bind("name", name);
+
+            return query.map((rs, ctx) -> {
+                        Product product = ctx.findRowMapperFor(Product.class).orElseThrow().map(rs, ctx);
+                        // Hot products keep their live stock in memory
+                        int stock = (int) HotStock.available(product.id()).orElse(rs.getInt("quantity"));
+                        return new Variant(product, stock, rs.getDouble("discount"));
+                    })
+                    .list();
+        });
+
+        Map<String, List<Variant>> variantsByName = new LinkedHashMap<>();
+        for (Variant variant : rows) {
+            variantsByName.computeIfAbsent(variant.product().name(), k -> new ArrayList<>()).add(variant);
+        }
+        return variantsByName;
+    }
+
+    /**
+     * Builds the structured entry of a single product name out of its variants,
+     * in one pass over variants that are already ordered by color and size.
+     *
+     * @param productName the product name
+     * @param variants the variants of the product, as returned by {@link #loadVariants}
+     * @param withDiscounts whether size variants should include their discount
+     * @return the product entry
+     */
+    static Map<String, Object> buildEntry(String productName, List<Variant> variants, boolean withDiscounts) {
+        Product firstVariant = variants.get(0).product();
+
+        // If any variant has a null color, collapse all into a single group
+        boolean hasNullColor = variants.stream().anyMatch(v -> v.product().color() == null);
+        Map<String, List<Variant>> variantsByColor = new LinkedHashMap<>();
+        for (Variant variant : variants) {
+            String colorKey = hasNullColor ? "default" : variant.product().color();
+            variantsByColor.computeIfAbsent(colorKey, k -> new ArrayList<>()).add(variant);
+        }
         if (hasNullColor) {
-            variantsByColor = new HashMap<>();
-            variantsByColor.put("default", variants);
-        } else {
-            variantsByColor = variants.stream()
-                    .collect(Collectors.groupingBy(Product::color));
+            // Variants come sorted by color first, so the collapsed group needs its sizes reordered
+            variantsByColor.get("default").sort(Comparator
+                    .comparingInt((Variant v) -> sizeRank(v.product().size()))
+                    .thenComparingLong(v -> v.product().id()));
+        }
+
+        // Images for the product
+        List<String> images;
+        try {
+            images = ProductImages.getImages(productName);
+        } catch (Exception e) {
+            images = new ArrayList<>();
         }
 
-        Product firstVariant = variants.get(0);
         List<Map<String, Object>> colorVariants = new ArrayList<>();
-        for (Map.Entry<String, List<Product>> entry : variantsByColor.entrySet()) {
-            String colorKey = entry.getKey();
-            List<Product> colorProducts = entry.getValue();
+        for (Map.Entry<String, List<Variant>> colorEntry : variantsByColor.entrySet()) {
+            String colorKey = colorEntry.getKey();
 
+            // Use null for output if using the default group
             String outputColor = "default".equals(colorKey) ? null : colorKey;
             String colorCode = (outputColor != null && outputColor.startsWith("#"))
                     ? outputColor.substring(1)
                     : outputColor;
 
-            // Total stock
-            List<Long> productIds = colorProducts.stream()
-                    .map(Product::id)
-                    .collect(Collectors.toList());
-            int totalStock = Database.getJdbi().withHandle(handle ->
-                    handle.createQuery("""
-                    SELECT COALESCE(SUM(quantity), 0)
-                    FROM stocks
-                    WHERE product_id IN (<product_ids>)
-                    """)
-                            .bindList("product_ids", productIds)
-                            .mapTo(Integer.class)
-                            .one()
-            );
-
-            // Images
-            List<String> images;
-            try {
-                images = ProductImages.getImages(productName);
-            } catch (Exception e) {
-                images = new ArrayList<>();
-            }
-
-            // Size variants with discounts
+            int totalStock = 0;
             List<Map<String, Object>> sizeVariants = new ArrayList<>();
-            List<String> sizeOrder = List.of("XS", "S", "M", "L", "XL", "XXL");
-            for (Product p : colorProducts) {
-                int stock = Database.getJdbi().withHandle(handle ->
-                        handle.createQuery("""
-                        SELECT COALESCE(quantity, 0)
-                        FROM stocks
-                        WHERE product_id = :product_id
-                        """)
-                                .bind("product_id", p.id())
-                                .mapTo(Integer.class)
-                                .one()
-                );
-                double discount = Database.getJdbi().withHandle(handle ->
-                        handle.createQuery("""
-                        SELECT COALESCE(discount, 0)
-                        FROM stocks
-                        WHERE product_id = :product_id
-                        """)
-                                .bind("product_id", p.id())
-                                .mapTo(Double.class)
-                                .one()
-                );
+            for (Variant variant : colorEntry.getValue()) {
+                totalStock += variant.stock();
+
                 Map<String, Object> sizeVariant = new HashMap<>();
-                sizeVariant.put("id", p.id());
-                sizeVariant.put("size", p.size());
-                sizeVariant.put("stock", stock);
-                sizeVariant.put("discount", discount);
+                sizeVariant.put("id", variant.product().id());
+                sizeVariant.put("size", variant.product().size());
+                sizeVariant.put("stock", variant.stock());
+                if (withDiscounts) {
+                    sizeVariant.put("discount", variant.discount());
+                }
                 sizeVariants.add(sizeVariant);
             }
-            sizeVariants.sort((a, b) -> {
-                String sizeA = (String) a.get("size");
-                String sizeB = (String) b.get("size");
-                int indexA = sizeOrder.indexOf(sizeA);
-                int indexB = sizeOrder.indexOf(sizeB);
-                return Integer.compare(indexA, indexB);
-            });
 
             Map<String, Object> colorVariant = new HashMap<>();
             colorVariant.put("color", outputColor);
@@ -262,14 +184,26 @@ public class ProductStructureApi {
             colorVariants.add(colorVariant);
         }
 
-        Map<String, Object> productDetails = new HashMap<>();
-        productDetails.put("name", productName);
-        productDetails.put("description", firstVariant.description());
-        productDetails.put("price", firstVariant.price());
-        productDetails.put("virtual", firstVariant.virtual());
-        productDetails.put("material", firstVariant.material());
-        productDetails.put("colorVariants", colorVariants);
+        Map<String, Object> productEntry = new HashMap<>();
+        productEntry.put("name", productName);
+        productEntry.put("description", firstVariant.description());
+        productEntry.put("price", firstVariant.price());
+        productEntry.put("virtual", firstVariant.virtual());
+        productEntry.put("material", firstVariant.material());
+        productEntry.put("colorVariants", colorVariants);
+        return productEntry;
+    }
+
+    /**
+     * @return the position of a size in display order, 0 for unknown sizes as in the variant query
+     */
+    static int sizeRank(String size) {
+        return SIZES.indexOf(size) + 1;
+    }
 
-        ctx.json(productDetails);
+    /**
+     * A product variant together with its stock row.
+     */
+    record Variant(Product product, int stock, double discount) {
     }
 }
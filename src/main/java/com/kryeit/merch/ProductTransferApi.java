@@ -0,0 +1,309 @@
+package com.kryeit.merch;
+
+import com.kryeit.Database;
+import io.javalin.http.BadRequestResponse;
+import io.javalin.http.Context;
+import io.javalin.http.Header;
+import org.json.JSONObject;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.postgresql.copy.CopyManager;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+
+import static com.kryeit.merch.ProductApi.handleSecurity;
+
+/**
+ * Bulk export and import of products joined with their stock,
+ * as CSV or newline delimited JSON.
+ */
+public class ProductTransferApi {
+    private static final int FETCH_SIZE = 500;
+
+    private static final List<String> COLUMNS = List.of(
+            "id", "name", "description", "price", "size", "color", "material", "virtual", "listed", "quantity", "discount"
+    );
+
+    /**
+     * HTTP GET Request to /api/products/export
+     * Streams every product with its stock. Rows are read through a server-side cursor,
+     * so the full list is never held in memory.
+     *
+     * Query Parameters:
+     * - format (optional): csv or ndjson (default is csv).
+     *
+     * @param ctx the Javalin HTTP context
+     */
+    public static void exportProducts(Context ctx) throws IOException {
+        handleSecurity(ctx);
+
+        boolean ndjson = isNdjson(ctx);
+        ctx.contentType(ndjson ? "application/x-ndjson" : "text/csv");
+        ctx.header(Header.CONTENT_DISPOSITION, "attachment; filename=products." + (ndjson ? "ndjson" : "csv"));
+
+        // Postgres only uses a cursor for the fetch size inside a transaction
+        Database.getJdbi().useTransaction(handle -> {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(ctx.outputStream(), StandardCharsets.UTF_8));
+
+            if (!ndjson) {
+                writer.write(String.join(",", COLUMNS));
+                writer.write('\n');
+            }
+
+            handle.createQuery("""
+                    SELECT p.id, p.name, p.description, p.price, p.size, p.color, p.material, p.virtual, p.listed,
+                           s.quantity, s.discount
+                    FROM products p
+                    LEFT JOIN stocks s ON s.product_id = p.id
+                    ORDER BY p.id
+                    """)
+                    .setFetchSize(FETCH_SIZE)
+                    .map((rs, statementContext) -> ndjson ? toJsonLine(rs) : toCsvLine(rs))
+                    .useStream(lines -> lines.forEach(line -> {
+                        try {
+                            writer.write(line);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }));
+
+            writer.flush();
+        });
+    }
+
+    /**
+     * HTTP POST Request to /api/products/import
+     * Upserts products and their stock from a CSV or NDJSON body, in the format produced by the export.
+     * The body is streamed into a temporary table with COPY and merged in the same transaction.
+     * Rows with an id update that product, rows without one create a new product.
+     * Empty stock, virtual and listed values keep the current value.
+     * The whole import is rejected if a quantity would drop below the units held by pending checkouts.
+     *
+     * Query Parameters:
+     * - format (optional): csv or ndjson (default is csv). CSV bodies must start with a header row.
+     *
+     * @param ctx the Javalin HTTP context
+     */
+    public static void importProducts(Context ctx) throws IOException {
+        handleSecurity(ctx);
+
+        boolean ndjson = isNdjson(ctx);
+
+        long imported = HotStock.writeQuantities(handle -> {
+            handle.execute("""
+                    CREATE TEMP TABLE product_import (
+                        id BIGINT,
+                        name VARCHAR(255) NOT NULL,
+                        description TEXT,
+                        price BIGINT NOT NULL,
+                        size VARCHAR(50),
+                        color VARCHAR(50),
+                        material VARCHAR(100),
+                        virtual BOOLEAN,
+                        listed BOOLEAN,
+                        quantity BIGINT,
+                        discount DOUBLE PRECISION
+                    ) ON COMMIT DROP
+                    """);
+
+            long rows;
+            try {
+                CopyManager copyManager = handle.getConnection().unwrap(PGConnection.class).getCopyAPI();
+                String copy = "COPY product_import (" + String.join(", ", COLUMNS) + ") FROM STDIN WITH (FORMAT csv"
+                        + (ndjson ? ")" : ", HEADER true)");
+
+                if (ndjson) {
+                    rows = copyNdjson(copyManager.copyIn(copy), ctx);
+                } else {
+                    rows = copyManager.copyIn(copy, ctx.bodyInputStream());
+                }
+            } catch (SQLException e) {
+                throw new BadRequestResponse("Invalid import data: " + e.getMessage());
+            }
+
+            // The upsert below can only touch each product once
+            List<Long> duplicates = handle.createQuery("""
+                    SELECT id
+                    FROM product_import
+                    WHERE id IS NOT NULL
+                    GROUP BY id
+                    HAVING COUNT(*) > 1
+                    ORDER BY id
+                    """)
+                    .mapTo(Long.class)
+                    .list();
+            if (!duplicates.isEmpty()) {
+                throw new BadRequestResponse("Duplicate product ids in import: " + duplicates);
+            }
+
+            // New products get their id up front, so their stock rows can be matched below
+            handle.execute("""
+                    UPDATE product_import
+                    SET id = nextval(pg_get_serial_sequence('products', 'id'))
+                    WHERE id IS NULL
+                    """);
+
+            // Flags left empty default to false on new products and keep their value on existing ones
+            handle.execute("""
+                    INSERT INTO products (id, name, description, price, size, color, material, virtual, listed)
+                    SELECT id, name, description, price, size, color, material, COALESCE(virtual, false), COALESCE(listed, false)
+                    FROM product_import
+                    ON CONFLICT (id) DO UPDATE SET
+                        name = EXCLUDED.name,
+                        description = EXCLUDED.description,
+                        price = EXCLUDED.price,
+                        size = EXCLUDED.size,
+                        color = EXCLUDED.color,
+                        material = EXCLUDED.material,
+                        virtual = COALESCE((SELECT i.virtual FROM product_import i WHERE i.id = EXCLUDED.id), products.virtual),
+                        listed = COALESCE((SELECT i.listed FROM product_import i WHERE i.id = EXCLUDED.id), products.listed),
+                        edition = NOW()
+                    """);
+
+            // Imported ids may be ahead of the sequence, keep it past them
+            handle.createQuery("""
+                    SELECT setval(pg_get_serial_sequence('products', 'id'), GREATEST((SELECT MAX(id) FROM products), 1))
+                    """)
+                    .mapTo(Long.class)
+                    .one();
+
+            // Same lock order as checkouts, so the update cannot deadlock against them
+            handle.createQuery("""
+                    SELECT s.id
+                    FROM stocks s
+                    JOIN product_import i ON i.id = s.product_id
+                    ORDER BY s.product_id
+                    FOR UPDATE OF s
+                    """)
+                    .mapTo(Long.class)
+                    .list();
+
+            handle.execute("""
+                    UPDATE stocks s
+                    SET quantity = COALESCE(i.quantity, s.quantity),
+                        discount = COALESCE(i.discount, s.discount)
+                    FROM product_import i
+                    WHERE s.product_id = i.id
+                    """);
+
+            // Hot products keep their holds in the counter instead of stocks.reserved
+            List<Long> oversold = handle.createQuery("""
+                    SELECT s.product_id
+                    FROM stocks s
+                    JOIN product_import i ON i.id = s.product_id
+                    WHERE NOT s.hot AND s.quantity < s.reserved
+                    ORDER BY s.product_id
+                    """)
+                    .mapTo(Long.class)
+                    .list();
+            if (!oversold.isEmpty()) {
+                throw new BadRequestResponse("Product ids would drop below their reserved units: " + oversold);
+            }
+
+            handle.execute("""
+                    INSERT INTO stocks (product_id, quantity, discount)
+                    SELECT i.id, COALESCE(i.quantity, 0), COALESCE(i.discount, 0)
+                    FROM product_import i
+                    WHERE NOT EXISTS (SELECT 1 FROM stocks s WHERE s.product_id = i.id)
+                    """);
+
+            return rows;
+        });
+
+        ProductCatalog.invalidate();
+
+        ctx.json(Map.of("imported", imported));
+    }
+
+    private static boolean isNdjson(Context ctx) {
+        String format = ctx.queryParam("format");
+        if (format == null || format.equals("csv")) {
+            return false;
+        }
+        if (format.equals("ndjson")) {
+            return true;
+        }
+        throw new BadRequestResponse("Unknown format: " + format);
+    }
+
+    /**
+     * Feeds NDJSON lines into a CSV COPY, converting one line at a time.
+     */
+    private static long copyNdjson(CopyIn copyIn, Context ctx) throws SQLException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(ctx.bodyInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) continue;
+
+                JSONObject json = new JSONObject(line);
+                StringBuilder csv = new StringBuilder();
+                for (int i = 0; i < COLUMNS.size(); i++) {
+                    if (i > 0) csv.append(',');
+                    Object value = json.opt(COLUMNS.get(i));
+                    if (value != null && value != JSONObject.NULL) {
+                        appendCsv(csv, value.toString());
+                    }
+                }
+                csv.append('\n');
+
+                byte[] bytes = csv.toString().getBytes(StandardCharsets.UTF_8);
+                copyIn.writeToCopy(bytes, 0, bytes.length);
+            }
+            return copyIn.endCopy();
+        } catch (IOException | RuntimeException e) {
+            if (copyIn.isActive()) {
+                copyIn.cancelCopy();
+            }
+            throw new BadRequestResponse("Invalid import data: " + e.getMessage());
+        }
+    }
+
+    private static String toCsvLine(ResultSet rs) throws SQLException {
+        StringBuilder csv = new StringBuilder();
+        for (int i = 0; i < COLUMNS.size(); i++) {
+            if (i > 0) csv.append(',');
+            // Unquoted empty fields are read back as NULL by COPY
+            String value = rs.getString(COLUMNS.get(i));
+            if (value != null) {
+                appendCsv(csv, value);
+            }
+        }
+        return csv.append('\n').toString();
+    }
+
+    private static String toJsonLine(ResultSet rs) throws SQLException {
+        JSONObject json = new JSONObject();
+        json.put("id", rs.getLong("id"));
+        json.put("name", rs.getString("name"));
+        json.put("description", nullable(rs.getString("description")));
+        json.put("price", rs.getLong("price"));
+        json.put("size", nullable(rs.getString("size")));
+        json.put("color", nullable(rs.getString("color")));
+        json.put("material", nullable(rs.getString("material")));
+        json.put("virtual", rs.getBoolean("virtual"));
+        json.put("listed", rs.getBoolean("listed"));
+        json.put("quantity", nullable(rs.getObject("quantity")));
+        json.put("discount", nullable(rs.getObject("discount")));
+        return json + "\n";
+    }
+
+    private static Object nullable(Object value) {
+        return value == null ? JSONObject.NULL : value;
+    }
+
+    private static void appendCsv(StringBuilder csv, String value) {
+        // Always quoted, so empty strings stay distinct from NULL
+        csv.append('"').append(value.replace("\"", "\"\"")).append('"');
+    }
+}
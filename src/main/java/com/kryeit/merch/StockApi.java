@@ -1,16 +1,33 @@
 package com.kryeit.merch;
 
 import com.kryeit.Database;
+import com.kryeit.utils.Pagination;
 import com.kryeit.utils.Utils;
+import io.javalin.http.BadRequestResponse;
 import io.javalin.http.Context;
+import io.javalin.http.NotFoundResponse;
+import org.jdbi.v3.core.mapper.CaseStrategy;
+import org.jdbi.v3.core.mapper.MapMappers;
+import org.json.JSONArray;
 import org.json.JSONObject;
 
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 
 import static com.kryeit.merch.ProductApi.handleSecurity;
 
 public class StockApi {
 
+    private static final Map<String, String> STOCK_FIELDS = Map.of(
+            "id", "id",
+            "productId", "product_id",
+            "quantity", "quantity",
+            "discount", "discount"
+    );
+
     /**
      * HTTP PATCH Request to /api/stock?id={id}
      * Updates the stock quantity based on an action.
@@ -19,6 +36,7 @@ public class StockApi {
      * - id: The ID of the stock to update.
      * - action: The action to perform (add, remove, remove-all).
      * - quantity: The quantity to add or remove.
+     * - hot (optional): Whether to serve the stock from memory during a drop, see {@link HotStock}.
      *
      * @param ctx the Javalin HTTP context
      */
@@ -39,7 +57,14 @@ public class StockApi {
             WHERE id = :id
             """;
 
-        Stock stock = Database.getJdbi().withHandle(handle -> {
+        Long productId = Database.getJdbi().withHandle(handle -> handle.createQuery("SELECT product_id FROM stocks WHERE id = :id")
+                .bind("id", id)
+                .mapTo(Long.class)
+                .findOne()
+                .orElse(null));
+        boolean hot = productId != null && HotStock.isHot(productId);
+
+        Stock stock = HotStock.writeQuantities(handle -> {
             handle.createUpdate(updateQuery)
                     .bind("quantity", quantity)
                     .bind("discount", discount)
@@ -55,9 +80,107 @@ public class StockApi {
                     .one();
         });
 
+        if (body.has("hot") && body.getBoolean("hot") != hot) {
+            HotStock.setHot(stock.productId(), body.getBoolean("hot"));
+        }
+
+        ProductCatalog.refreshProduct(stock.productId());
+
         ctx.json(stock);
     }
 
+    /**
+     * HTTP PATCH Request to /api/stock/bulk
+     * Updates many stock entries in one transaction, with a single statement.
+     * Entries not given a quantity, delta or discount keep their current value.
+     *
+     * JSON Parameters (array of):
+     * - id: The ID of the stock to update.
+     * - quantity (optional): The new quantity.
+     * - delta (optional): The quantity to add, negative to remove. Not allowed together with quantity.
+     * - discount (optional): The new discount.
+     *
+     * Nothing is updated if any ID is unknown (404), or if any quantity would drop below the units
+     * held by pending checkouts (400).
+     *
+     * @param ctx the Javalin HTTP context
+     */
+    public static void updateStocks(Context ctx) {
+        handleSecurity(ctx);
+
+        JSONArray body = new JSONArray(ctx.body());
+        int size = body.length();
+        Long[] ids = new Long[size];
+        Long[] quantities = new Long[size];
+        Long[] deltas = new Long[size];
+        Double[] discounts = new Double[size];
+
+        Set<Long> seen = new HashSet<>();
+        for (int i = 0; i < size; i++) {
+            JSONObject entry = body.getJSONObject(i);
+            ids[i] = entry.getLong("id");
+            if (!seen.add(ids[i])) {
+                throw new BadRequestResponse("Duplicate stock ID: " + ids[i]);
+            }
+            if (!entry.isNull("quantity") && !entry.isNull("delta")) {
+                throw new BadRequestResponse("Stock " + ids[i] + " has both a quantity and a delta");
+            }
+            quantities[i] = entry.isNull("quantity") ? null : entry.getLong("quantity");
+            deltas[i] = entry.isNull("delta") ? null : entry.getLong("delta");
+            discounts[i] = entry.isNull("discount") ? null : entry.getDouble("discount");
+        }
+
+        // Throwing inside the transaction rolls back the whole batch
+        List<Stock> stocks = HotStock.writeQuantities(handle -> {
+            // Same lock order as checkouts, so a restock cannot deadlock against them
+            handle.createQuery("SELECT id FROM stocks WHERE id = ANY(:ids) ORDER BY product_id FOR UPDATE")
+                    .bindArray("ids", Long.class, (Object[]) ids)
+                    .mapTo(Long.class)
+                    .list();
+
+            List<Stock> updated = handle.createQuery("""
+                    UPDATE stocks s SET
+                    quantity = COALESCE(v.quantity, s.quantity + COALESCE(v.delta, 0)),
+                    discount = COALESCE(v.discount, s.discount)
+                    FROM unnest(:ids, :quantities, :deltas, :discounts) AS v(id, quantity, delta, discount)
+                    WHERE s.id = v.id
+                    RETURNING s.id, s.product_id, s.quantity, s.discount
+                    """)
+                    .bindArray("ids", Long.class, (Object[]) ids)
+                    .bindArray("quantities", Long.class, (Object[]) quantities)
+                    .bindArray("deltas", Long.class, (Object[]) deltas)
+                    .bindArray("discounts", Double.class, (Object[]) discounts)
+                    .mapTo(Stock.class)
+                    .list();
+
+            if (updated.size() < size) {
+                Set<Long> unknown = new TreeSet<>(seen);
+                updated.forEach(stock -> unknown.remove(stock.id()));
+                throw new NotFoundResponse("Unknown stock IDs: " + unknown);
+            }
+
+            // Hot products keep their holds in the counter instead of stocks.reserved
+            List<Long> oversold = handle.createQuery("""
+                    SELECT id
+                    FROM stocks
+                    WHERE id = ANY(:ids) AND NOT hot AND quantity < reserved
+                    ORDER BY id
+                    """)
+                    .bindArray("ids", Long.class, (Object[]) ids)
+                    .mapTo(Long.class)
+                    .list();
+            if (!oversold.isEmpty()) {
+                throw new BadRequestResponse("Stock IDs would drop below their reserved units: " + oversold);
+            }
+
+            return updated;
+        });
+
+        ProductCatalog.refreshProducts(stocks.stream().map(Stock::productId).toList());
+
+        ctx.json(stocks);
+    }
+
     /**
      * Function to set up the stock of a product when created.
      *
@@ -100,22 +223,36 @@ public class StockApi {
 
     /**
      * HTTP GET Request to /api/stock
-     * Retrieves a paginated list of stock entries.
+     * Retrieves a page of stock entries ordered by ID.
      *
      * Query Parameters:
-     * - page: The page number to retrieve (default is 1).
+     * - after, limit, fields: see {@link Pagination}.
      *
      * @param ctx the Javalin HTTP context
      */
     public static void getStocks(Context ctx) {
-        List<Stock> stocks = Database.getJdbi().withHandle(handle -> handle.createQuery("""
-                SELECT id, product_id, quantity, discount
+        Pagination.Page page = Pagination.fromRequest(ctx, STOCK_FIELDS);
+
+        Database.getJdbi().useHandle(handle -> {
+            var query = handle.createQuery("""
+                SELECT <columns>
                 FROM stocks
+                WHERE id > :after
+                ORDER BY id
+                LIMIT :limit
                 """)
-                .mapTo(Stock.class)
-                .list());
+                    .define("columns", page.columns())
+                    .bind("after", page.after())
+                    .bind("limit", page.limit() + 1);
 
-        ctx.json(stocks);
+            if (page.projected()) {
+                page.respond(ctx, query.configure(MapMappers.class, m -> m.setCaseChange(CaseStrategy.NOP))
+                        .mapToMap()
+                        .list(), row -> ((Number) row.get("id")).longValue());
+            } else {
+                page.respond(ctx, query.mapTo(Stock.class).list(), Stock::id);
+            }
+        });
     }
 
     public static void getStocksByName(Context ctx) {
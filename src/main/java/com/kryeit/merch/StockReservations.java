@@ -0,0 +1,245 @@
+package com.kryeit.merch;
+
+import com.kryeit.Database;
+import org.jdbi.v3.core.Handle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stock held for checkouts that have not been paid yet.
+ *
+ * A hold moves quantities from available to stocks.reserved in one statement, guarded by
+ * quantity - reserved, so concurrent checkouts can never reserve more than there is.
+ * Paid holds are committed into the quantity, and unpaid ones are released when their
+ * checkout expires, or by a sweeper once the hold itself expires.
+ */
+public class StockReservations {
+    private static final Logger logger = LoggerFactory.getLogger(StockReservations.class);
+
+    private static final long SWEEP_INTERVAL_SECONDS = 60;
+
+    private static final ScheduledExecutorService SWEEPER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "stock-reservation-sweeper");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public static void start() {
+        SWEEPER.scheduleWithFixedDelay(StockReservations::sweep, SWEEP_INTERVAL_SECONDS, SWEEP_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Reserves every quantity of a cart, or nothing if any product is short.
+     * Hot products are taken from their in-memory counters, see {@link HotStock}.
+     *
+     * @param quantities the quantity to reserve by product ID
+     * @param lifetime how long the hold lasts unless it is committed or released
+     * @return the ID of the hold, or empty if a product does not have enough stock available
+     */
+    public static Optional<UUID> reserve(Map<Long, Integer> quantities, Duration lifetime) {
+        Map<Long, Integer> hot = new HashMap<>();
+        Map<Long, Integer> cold = new HashMap<>();
+        quantities.forEach((productId, quantity) -> (HotStock.isHot(productId) ? hot : cold).put(productId, quantity));
+
+        if (!HotStock.take(hot)) {
+            return Optional.empty();
+        }
+
+        UUID holdId = UUID.randomUUID();
+        Long[] coldIds = cold.keySet().toArray(new Long[0]);
+        Long[] coldAmounts = amounts(cold, coldIds);
+        Long[] productIds = quantities.keySet().toArray(new Long[0]);
+        Long[] amounts = amounts(quantities, productIds);
+
+        boolean reserved;
+        try {
+            reserved = Database.getJdbi().inTransaction(handle -> {
+                // Lock in a fixed order, so overlapping carts cannot deadlock
+                handle.createQuery("SELECT id FROM stocks WHERE product_id = ANY(:ids) ORDER BY product_id FOR UPDATE")
+                        .bindArray("ids", Long.class, (Object[]) coldIds)
+                        .mapTo(Long.class)
+                        .list();
+
+                List<Long> held = handle.createQuery("""
+                                UPDATE stocks s
+                                SET reserved = s.reserved + v.quantity
+                                FROM unnest(:ids, :quantities) AS v(product_id, quantity)
+                                WHERE s.product_id = v.product_id AND s.quantity - s.reserved >= v.quantity
+                                RETURNING s.product_id
+                                """)
+                        .bindArray("ids", Long.class, (Object[]) coldIds)
+                        .bindArray("quantities", Long.class, (Object[]) coldAmounts)
+                        .mapTo(Long.class)
+                        .list();
+
+                if (held.size() != coldIds.length) {
+                    handle.rollback();
+                    return false;
+                }
+
+                handle.createUpdate("""
+                                INSERT INTO stock_reservations (hold_id, product_id, quantity, expires_at)
+                                SELECT :hold, v.product_id, v.quantity, :expiresAt
+                                FROM unnest(:ids, :quantities) AS v(product_id, quantity)
+                                """)
+                        .bind("hold", holdId)
+                        .bind("expiresAt", new Timestamp(System.currentTimeMillis() + lifetime.toMillis()))
+                        .bindArray("ids", Long.class, (Object[]) productIds)
+                        .bindArray("quantities", Long.class, (Object[]) amounts)
+                        .execute();
+                return true;
+            });
+        } catch (RuntimeException e) {
+            HotStock.give(hot);
+            throw e;
+        }
+
+        if (!reserved) {
+            HotStock.give(hot);
+            return Optional.empty();
+        }
+
+        // Hot products are refreshed by the flusher
+        ProductCatalog.refreshProducts(cold.keySet());
+        return Optional.of(holdId);
+    }
+
+    /**
+     * Turns a hold into a sale, taking its quantities out of the stock of non-virtual products.
+     *
+     * @return false if the hold no longer exists, because it was already committed or released
+     */
+    public static boolean commit(UUID holdId) {
+        Optional<Runnable> afterCommit = Database.getJdbi().inTransaction(handle -> commit(handle, holdId));
+        afterCommit.ifPresent(Runnable::run);
+        return afterCommit.isPresent();
+    }
+
+    /**
+     * Turns a hold into a sale in the transaction of the caller, such as the one recording the order.
+     *
+     * @return what to run once the transaction commits, or empty if the hold no longer exists
+     */
+    public static Optional<Runnable> commit(Handle handle, UUID holdId) {
+        Released released = release(handle, "hold_id = :hold", holdId, true);
+        return released.isEmpty() ? Optional.empty() : Optional.of(released::apply);
+    }
+
+    /**
+     * Gives the quantities of a hold back, if it still exists.
+     */
+    public static void release(UUID holdId) {
+        Database.getJdbi().inTransaction(handle -> release(handle, "hold_id = :hold", holdId, false)).apply();
+    }
+
+    /**
+     * Releases every expired hold.
+     */
+    private static void sweep() {
+        try {
+            Released released = Database.getJdbi().inTransaction(handle ->
+                    release(handle, "expires_at <= CURRENT_TIMESTAMP", null, false));
+            if (!released.isEmpty()) {
+                logger.info("Released expired stock reservations of {} products", released.size());
+                released.apply();
+            }
+        } catch (Exception e) {
+            logger.error("Failed to release expired stock reservations", e);
+        }
+    }
+
+    /**
+     * Deletes the matching holds and takes their quantities off stocks.reserved,
+     * and off the quantity of non-virtual products as well when they are sold.
+     * Sales of hot products are journaled instead, and their unsold units are
+     * given back to the counters once the transaction commits.
+     */
+    private static Released release(Handle handle, String condition, UUID holdId, boolean sold) {
+        var query = handle.createQuery("""
+                        WITH released AS (
+                            DELETE FROM stock_reservations
+                            WHERE <condition>
+                            RETURNING product_id, quantity
+                        )
+                        SELECT product_id, SUM(quantity) AS quantity
+                        FROM released
+                        GROUP BY product_id
+                        """)
+                .define("condition", condition);
+        if (holdId != null) {
+            query.bind("hold", holdId);
+        }
+
+        Map<Long, Long> hot = new HashMap<>();
+        Map<Long, Long> cold = new HashMap<>();
+        query.map((rs, ctx) -> Map.entry(rs.getLong("product_id"), rs.getLong("quantity")))
+                .forEach(entry -> (HotStock.isHot(entry.getKey()) ? hot : cold).put(entry.getKey(), entry.getValue()));
+
+        Long[] coldIds = cold.keySet().toArray(new Long[0]);
+        // Locked in the same order as reserve, so releases and checkouts cannot deadlock
+        handle.createQuery("SELECT id FROM stocks WHERE product_id = ANY(:ids) ORDER BY product_id FOR UPDATE")
+                .bindArray("ids", Long.class, (Object[]) coldIds)
+                .mapTo(Long.class)
+                .list();
+        List<Long> changed = handle.createQuery("""
+                        UPDATE stocks s
+                        SET reserved = GREATEST(s.reserved - v.quantity, 0),
+                            quantity = s.quantity - CASE WHEN :sold AND NOT p.virtual THEN v.quantity ELSE 0 END
+                        FROM unnest(:ids, :quantities) AS v(product_id, quantity), products p
+                        WHERE s.product_id = v.product_id AND p.id = v.product_id
+                        RETURNING s.product_id
+                        """)
+                .bind("sold", sold)
+                .bindArray("ids", Long.class, (Object[]) coldIds)
+                .bindArray("quantities", Long.class, (Object[]) amounts(cold, coldIds))
+                .mapTo(Long.class)
+                .list();
+
+        // Sold units stay taken, everything else goes back to the counters
+        Map<Long, Long> restored = new HashMap<>(hot);
+        if (sold) {
+            HotStock.journalSale(handle, hot).forEach((productId, quantity) ->
+                    restored.merge(productId, -quantity, Long::sum));
+        }
+
+        return new Released(hot.size() + cold.size(), changed, restored);
+    }
+
+    private static Long[] amounts(Map<Long, ? extends Number> quantities, Long[] productIds) {
+        Long[] amounts = new Long[productIds.length];
+        for (int i = 0; i < productIds.length; i++) {
+            amounts[i] = quantities.get(productIds[i]).longValue();
+        }
+        return amounts;
+    }
+
+    /**
+     * @param size the number of products whose holds were removed
+     * @param changed the IDs of the products whose stock row changed
+     * @param restored the units to give back to hot counters
+     */
+    private record Released(int size, List<Long> changed, Map<Long, Long> restored) {
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        /**
+         * Applies the in-memory side of a release, after its transaction committed.
+         */
+        void apply() {
+            HotStock.give(restored);
+            ProductCatalog.refreshProducts(changed);
+        }
+    }
+}
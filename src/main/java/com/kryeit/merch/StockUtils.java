@@ -1,50 +1,67 @@
 package com.kryeit.merch;
 
 import com.kryeit.Database;
+import io.javalin.http.BadRequestResponse;
+import org.jdbi.v3.core.Handle;
 import org.json.JSONObject;
 
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Optional;
+import java.util.Map;
 
 public class StockUtils {
 
-    public static boolean areAllProductsStocked(JSONObject cart) {
+    // The quantity of every product in a cart, keyed by product id
+    public static Map<Long, Integer> cartQuantities(JSONObject cart) {
+        Map<Long, Integer> quantities = new LinkedHashMap<>();
         for (String key : cart.keySet()) {
-            Long productId = Long.parseLong(key);
             int quantity = cart.getJSONObject(key).getInt("quantity");
-
-            Optional<Integer> stockQuantity = Database.getJdbi().withHandle(handle ->
-                    handle.createQuery("""
-                    SELECT quantity
-                    FROM stocks
-                    WHERE product_id = :product_id
-                """)
-                            .bind("product_id", productId)
-                            .mapTo(Integer.class)
-                            .findOne()
-            );
-
-            if (stockQuantity.isEmpty() || stockQuantity.get() < quantity) {
-                return false;
+            // Zero or negative quantities would hand stock back and lower the total
+            if (quantity < 1) {
+                throw new BadRequestResponse("Invalid quantity for product " + key + ": " + quantity);
             }
+            quantities.put(Long.parseLong(key), quantity);
         }
-        return true;
+        return quantities;
     }
 
-    // Reduces the stock of every item id by one
+    // Reduces the stock of every item id by one per occurrence, in a single statement
     public static void reduceStock(List<Long> productIds) {
+        Database.getJdbi().inTransaction(handle -> reduceStock(handle, productIds)).run();
+    }
+
+    // Same as above, in the transaction of the caller. Returns what to run once it commits
+    public static Runnable reduceStock(Handle handle, List<Long> productIds) {
+        Map<Long, Long> quantities = new LinkedHashMap<>();
+        Map<Long, Long> hot = new LinkedHashMap<>();
         for (long productId : productIds) {
-            Database.getJdbi().useHandle(handle -> {
-                handle.createUpdate("""
-            UPDATE stocks
-            SET quantity = quantity - 1
-            WHERE product_id = :product_id AND product_id IN (
-                SELECT id FROM products WHERE id = :product_id AND virtual = false
-            )
-            """)
-                        .bind("product_id", productId)
-                        .execute();
-            });
+            (HotStock.isHot(productId) ? hot : quantities).merge(productId, 1L, Long::sum);
+        }
+
+        // Hot products are journaled and written by the flusher, their counters move once this commits
+        Runnable soldHot = HotStock.sell(handle, hot);
+        if (quantities.isEmpty()) {
+            return soldHot;
         }
+
+        Long[] ids = quantities.keySet().toArray(new Long[0]);
+        Long[] amounts = quantities.values().toArray(new Long[0]);
+
+        List<Long> reduced = handle.createQuery("""
+                UPDATE stocks s
+                SET quantity = s.quantity - v.quantity
+                FROM unnest(:ids, :quantities) AS v(product_id, quantity), products p
+                WHERE s.product_id = v.product_id AND p.id = v.product_id AND p.virtual = false
+                RETURNING s.product_id
+            """)
+                .bindArray("ids", Long.class, (Object[]) ids)
+                .bindArray("quantities", Long.class, (Object[]) amounts)
+                .mapTo(Long.class)
+                .list();
+
+        return () -> {
+            soldHot.run();
+            ProductCatalog.refreshProducts(reduced);
+        };
     }
 }
@@ -0,0 +1,28 @@
+package com.kryeit.panel;
+
+import com.kryeit.panel.auth.Admin;
+import com.kryeit.panel.auth.PasswordHasher;
+import com.kryeit.utils.RateLimiter;
+import io.javalin.http.Context;
+import io.javalin.http.UnauthorizedResponse;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class MetricsApi {
+
+    /**
+     * HTTP GET Request to /api/admin/metrics
+     * Retrieves runtime metrics of the server. Only available to admins.
+     *
+     * @param ctx the Javalin HTTP context
+     */
+    public static void getMetrics(Context ctx) {
+        Admin.fromRequest(ctx).orElseThrow(UnauthorizedResponse::new);
+
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("passwordHasher", PasswordHasher.metrics());
+        metrics.put("rateLimits", RateLimiter.metrics());
+        ctx.json(metrics);
+    }
+}
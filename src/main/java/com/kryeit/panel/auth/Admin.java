@@ -1,33 +1,43 @@
 package com.kryeit.panel.auth;
 
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
 import com.kryeit.Database;
-import com.kryeit.auth.Jwt;
-import com.kryeit.auth.User;
+import com.kryeit.auth.RequestPrincipal;
 import io.javalin.http.Context;
 
+import java.time.Duration;
 import java.util.Optional;
-import java.util.UUID;
 
 public record Admin(long id, String username, String password) {
 
+    // Admin principals by ID, without their password hash. Misses are cached too,
+    // so registering an admin has to invalidate the cache.
+    private static final LoadingCache<Long, Optional<Admin>> PRINCIPALS = Caffeine.newBuilder()
+            .maximumSize(1_000)
+            .expireAfterWrite(Duration.ofSeconds(30))
+            .build(Admin::load);
+
     public static Optional<Admin> fromRequest(Context ctx) {
-        String cookie = ctx.cookie("auth");
-        if (cookie == null) {
-            return Optional.empty();
-        }
+        return RequestPrincipal.of(ctx).admin();
+    }
+
+    public static Optional<Admin> byId(long id) {
+        return PRINCIPALS.get(id);
+    }
 
-        // Read the token and process it
-        long userId = AdminJwt.validateToken(cookie);
+    public static void invalidate() {
+        PRINCIPALS.invalidateAll();
+    }
 
-        Admin admin = Database.getJdbi().withHandle(h -> h.createQuery("""
-                        SELECT *
+    private static Optional<Admin> load(long id) {
+        return Database.getJdbi().withHandle(h -> h.createQuery("""
+                        SELECT id, username
                         FROM admins
                         WHERE id = :id
                         """)
-                .bind("id", userId)
-                .mapTo(Admin.class)
-                .first());
-
-        return Optional.of(admin);
+                .bind("id", id)
+                .map((rs, ctx) -> new Admin(rs.getLong("id"), rs.getString("username"), null))
+                .findOne());
     }
-}
\ No newline at end of file
+}
@@ -4,10 +4,9 @@ import com.auth0.jwt.JWT;
 import com.auth0.jwt.JWTCreator;
 import com.auth0.jwt.algorithms.Algorithm;
 import com.auth0.jwt.exceptions.JWTVerificationException;
-import com.auth0.jwt.exceptions.TokenExpiredException;
-import com.auth0.jwt.interfaces.DecodedJWT;
 import com.auth0.jwt.interfaces.JWTVerifier;
 import com.kryeit.Config;
+import com.kryeit.auth.VerifiedTokenCache;
 import io.javalin.http.UnauthorizedResponse;
 
 import java.time.Duration;
@@ -18,6 +17,10 @@ public class AdminJwt {
     public static final Algorithm algorithm = Algorithm.HMAC256(Config.adminJwtSecret);
     private static final long EXPIRATION = Duration.ofDays(30).toMillis();
 
+    private static final JWTVerifier verifier = JWT.require(algorithm).build();
+    private static final VerifiedTokenCache<Long> verifiedTokens = new VerifiedTokenCache<>(verifier,
+            jwt -> jwt.getClaim("admin_id").asLong(), 1_000);
+
     public static String generateToken(long adminId) {
         JWTCreator.Builder token = JWT.create()
                 .withClaim("admin_id", adminId)
@@ -28,9 +31,11 @@ public class AdminJwt {
 
     public static long validateToken(String token) {
         try {
-            JWTVerifier verifier = JWT.require(algorithm).build();
-            DecodedJWT jwt = verifier.verify(token);
-            return jwt.getClaim("admin_id").asLong();
+            Long adminId = verifiedTokens.get(token);
+            if (adminId == null) {
+                throw new UnauthorizedResponse("Invalid token");
+            }
+            return adminId;
         } catch (JWTVerificationException e) {
             throw new UnauthorizedResponse("Invalid token");
         }
@@ -6,12 +6,18 @@ import com.kryeit.auth.User;
 import io.javalin.http.Context;
 import io.javalin.http.UnauthorizedResponse;
 import org.json.JSONObject;
-import org.mindrot.jbcrypt.BCrypt;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class AdminLoginApi {
+    private static final ExecutorService REGISTRATIONS = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "admin-registration");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     /**
      * HTTP POST Request to /api/login
@@ -37,15 +43,22 @@ public class AdminLoginApi {
                         .orElse(null)
         );
 
-        if (user != null && BCrypt.checkpw(password, user.password())) {
-            String token = AdminJwt.generateToken(user.id());
-            Map<String, String> response = new HashMap<>();
-            response.put("token", token);
-            response.put("username", user.username());
-            ctx.status(200).json(response);
-        } else {
+        if (user == null) {
             ctx.status(401).result("Invalid username or password.");
+            return;
         }
+
+        ctx.future(() -> PasswordHasher.check(password, user.password()).thenAccept(valid -> {
+            if (valid) {
+                String token = AdminJwt.generateToken(user.id());
+                Map<String, String> response = new HashMap<>();
+                response.put("token", token);
+                response.put("username", user.username());
+                ctx.status(200).json(response);
+            } else {
+                ctx.status(401).result("Invalid username or password.");
+            }
+        }));
     }
 
 
@@ -77,21 +90,23 @@ public class AdminLoginApi {
             return;
         }
 
-        try {
-            String hashedPassword = BCrypt.hashpw(password, BCrypt.gensalt());
-
-            Database.getJdbi().withHandle(handle ->
-                    handle.createUpdate("INSERT INTO admins (username, password) VALUES (:username, :password)")
-                            .bind("username", username)
-                            .bind("password", hashedPassword)
-                            .execute()
-            );
-
-            ctx.status(200).result("User registered successfully.");
-
-        } catch (Exception e) {
-            ctx.status(500).result("Registration failed due to internal error.");
-        }
+        // The insert runs off the hasher pool, which only has room for hashing
+        ctx.future(() -> PasswordHasher.hash(password).thenAcceptAsync(hashedPassword -> {
+            try {
+                Database.getJdbi().withHandle(handle ->
+                        handle.createUpdate("INSERT INTO admins (username, password) VALUES (:username, :password)")
+                                .bind("username", username)
+                                .bind("password", hashedPassword)
+                                .execute()
+                );
+                Admin.invalidate();
+
+                ctx.status(200).result("User registered successfully.");
+
+            } catch (Exception e) {
+                ctx.status(500).result("Registration failed due to internal error.");
+            }
+        }, REGISTRATIONS));
     }
 
     /**
@@ -101,30 +116,11 @@ public class AdminLoginApi {
      * @param ctx the Javalin HTTP context
      */
     public static void validate(Context ctx) {
-        String token = ctx.cookie("auth");
-
-        if (token == null) {
-            throw new UnauthorizedResponse();
-        }
-
-        long id = AdminJwt.validateToken(token);
-
-        if (id == -1) {
-            throw new UnauthorizedResponse();
-        }
-
-        Map<String, Object> data = Database.getJdbi().withHandle(handle -> handle.createQuery("""
-            SELECT id, username
-            FROM admins
-            WHERE id = :id
-            """)
-                .bind("id", id)
-                .mapToMap()
-                .one());
+        Admin admin = Admin.fromRequest(ctx).orElseThrow(UnauthorizedResponse::new);
 
         ctx.json(Map.of(
-                "id", data.get("id"),
-                "username", data.get("username")
+                "id", admin.id(),
+                "username", admin.username()
         ));
     }
 }
\ No newline at end of file
@@ -0,0 +1,103 @@
+package com.kryeit.panel.auth;
+
+import io.javalin.http.HttpResponseException;
+import io.javalin.http.HttpStatus;
+import org.mindrot.jbcrypt.BCrypt;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Runs BCrypt on a small dedicated pool, off the Jetty request threads.
+ *
+ * BCrypt is deliberately CPU heavy, so a burst of logins would otherwise occupy the whole
+ * request pool. The queue is bounded, and once it is full new requests fail right away
+ * with 429 instead of piling up.
+ */
+public class PasswordHasher {
+    private static final int THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    private static final int QUEUE_CAPACITY = 32;
+
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+    private static final ThreadPoolExecutor EXECUTOR = new ThreadPoolExecutor(
+            THREADS, THREADS,
+            0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(QUEUE_CAPACITY),
+            runnable -> {
+                Thread thread = new Thread(runnable, "password-hasher-" + THREAD_COUNT.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            },
+            new ThreadPoolExecutor.AbortPolicy()
+    );
+
+    private static final LongAdder COMPLETED = new LongAdder();
+    private static final LongAdder REJECTED = new LongAdder();
+    private static final LongAdder WAIT_NANOS = new LongAdder();
+    private static final LongAdder HASH_NANOS = new LongAdder();
+    private static final LongAccumulator MAX_HASH_NANOS = new LongAccumulator(Math::max, 0);
+
+    /**
+     * @return a future completing with whether the password matches the hash,
+     * or failing with 429 if the pool is saturated
+     */
+    public static CompletableFuture<Boolean> check(String password, String hash) {
+        return submit(() -> BCrypt.checkpw(password, hash));
+    }
+
+    /**
+     * @return a future completing with the salted hash of the password,
+     * or failing with 429 if the pool is saturated
+     */
+    public static CompletableFuture<String> hash(String password) {
+        return submit(() -> BCrypt.hashpw(password, BCrypt.gensalt()));
+    }
+
+    private static <T> CompletableFuture<T> submit(Supplier<T> task) {
+        long submitted = System.nanoTime();
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                long started = System.nanoTime();
+                try {
+                    return task.get();
+                } finally {
+                    long hashNanos = System.nanoTime() - started;
+                    WAIT_NANOS.add(started - submitted);
+                    HASH_NANOS.add(hashNanos);
+                    MAX_HASH_NANOS.accumulate(hashNanos);
+                    COMPLETED.increment();
+                }
+            }, EXECUTOR);
+        } catch (RejectedExecutionException e) {
+            REJECTED.increment();
+            return CompletableFuture.failedFuture(new HttpResponseException(
+                    HttpStatus.TOO_MANY_REQUESTS.getCode(), "Too many login attempts, try again later"));
+        }
+    }
+
+    public static Map<String, Object> metrics() {
+        long completed = COMPLETED.sum();
+
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("threads", THREADS);
+        metrics.put("active", EXECUTOR.getActiveCount());
+        metrics.put("queued", EXECUTOR.getQueue().size());
+        metrics.put("queueCapacity", QUEUE_CAPACITY);
+        metrics.put("completed", completed);
+        metrics.put("rejected", REJECTED.sum());
+        metrics.put("averageWaitMillis", completed == 0 ? 0 : WAIT_NANOS.sum() / completed / 1_000_000.0);
+        metrics.put("averageHashMillis", completed == 0 ? 0 : HASH_NANOS.sum() / completed / 1_000_000.0);
+        metrics.put("maxHashMillis", MAX_HASH_NANOS.get() / 1_000_000.0);
+        return metrics;
+    }
+}
@@ -1,20 +1,26 @@
 package com.kryeit.stripe;
 
 import com.kryeit.Config;
-import com.kryeit.Database;
-import com.kryeit.auth.Jwt;
+import com.kryeit.auth.RequestPrincipal;
+import com.kryeit.merch.CartResolver;
 import com.kryeit.merch.Product;
-import com.kryeit.merch.StockUtils;
+import com.kryeit.merch.StockReservations;
 import com.stripe.exception.StripeException;
 import com.stripe.model.checkout.Session;
 import io.javalin.http.Context;
 import io.javalin.http.UnauthorizedResponse;
 import org.json.JSONObject;
 
+import java.time.Duration;
+import java.time.Instant;
 import java.util.*;
 
 public class PaymentApi {
-
+    // Stripe needs sessions to expire at least 30 minutes after it creates them,
+    // the margin covers the request time and expires_at being rounded down to seconds
+    private static final Duration SESSION_LIFETIME = Duration.ofMinutes(32);
+    // Holds outlive their session a little, so a late webhook still finds the hold
+    private static final Duration HOLD_GRACE = Duration.ofMinutes(5);
 
     public static void createPaymentIntent(Context ctx) throws StripeException {
         JSONObject body = new JSONObject(ctx.body());
@@ -32,30 +38,17 @@ public class PaymentApi {
         }
 
 
-        if (!StockUtils.areAllProductsStocked(cart)) {
+        CartResolver.ResolvedCart resolved = CartResolver.resolve(cart);
+        if (!resolved.isStocked()) {
             throw new IllegalArgumentException("One or more products are out of stock");
         }
 
         List<Map<String, Object>> lineItems = new ArrayList<>();
-        boolean hasNonVirtualProduct = false;
-        boolean hasVirtualProduct = false;
-
-        for (String id : cart.keySet()) {
-            Long productId = Long.parseLong(id);
-            JSONObject item = cart.getJSONObject(id);
-            int quantity = item.getInt("quantity");
-
-            Product product = Database.getJdbi().withHandle(handle -> handle.createQuery("""
-            SELECT *
-            FROM products
-            WHERE id = :id
-            """)
-                    .bind("id", productId)
-                    .mapTo(Product.class)
-                    .findOne()
-                    .orElseThrow(() -> new IllegalArgumentException("Invalid product ID: " + productId))
-            );
+        boolean hasNonVirtualProduct = resolved.hasNonVirtualProduct();
+        boolean hasVirtualProduct = resolved.hasVirtualProduct();
 
+        for (CartResolver.Line line : resolved.lines()) {
+            Product product = line.product();
             int priceInCents = (int) (product.price() * 100);
 
             lineItems.add(Map.of(
@@ -66,14 +59,8 @@ public class PaymentApi {
                             ),
                             "unit_amount", priceInCents
                     ),
-                    "quantity", quantity
+                    "quantity", line.quantity()
             ));
-
-            if (!product.virtual()) {
-                hasNonVirtualProduct = true;
-            } else {
-                hasVirtualProduct = true;
-            }
         }
 
         if (hasNonVirtualProduct) {
@@ -90,19 +77,22 @@ public class PaymentApi {
         }
 
         Map<String, String> metadata = new HashMap<>();
-        String token = ctx.cookie("auth");
-        UUID uuid = Jwt.validateToken(token);
+        UUID uuid = RequestPrincipal.of(ctx).userId();
 
-        if (token != null && uuid != null) {
+        if (uuid != null) {
             metadata.put("uuid", uuid.toString());
         } else if (hasVirtualProduct) {
             throw new UnauthorizedResponse("Authentication is required for virtual products");
         }
 
+        UUID holdId = StockReservations.reserve(resolved.quantities(), SESSION_LIFETIME.plus(HOLD_GRACE))
+                .orElseThrow(() -> new IllegalArgumentException("One or more products are out of stock"));
+
         metadata.put("cart", cart.toString());
         metadata.put("email", email);
         metadata.put("phone", phone);
         metadata.put("destination", destination);
+        metadata.put("hold", holdId.toString());
 
         Map<String, Object> params = new HashMap<>();
         params.put("payment_method_types", List.of("card"));
@@ -111,8 +101,15 @@ public class PaymentApi {
         params.put("success_url", Config.FRONTEND_DOMAIN + "/orders?checkout=success&session_id={CHECKOUT_SESSION_ID}");
         params.put("cancel_url", Config.FRONTEND_DOMAIN + "/store");
         params.put("metadata", metadata);
+        params.put("expires_at", Instant.now().plus(SESSION_LIFETIME).getEpochSecond());
 
-        Session session = Session.create(params);
+        Session session;
+        try {
+            session = Session.create(params);
+        } catch (StripeException | RuntimeException e) {
+            StockReservations.release(holdId);
+            throw e;
+        }
         ctx.json(Map.of("id", session.getId()));
     }
 
@@ -3,6 +3,7 @@ package com.kryeit.stripe;
 import com.kryeit.Config;
 import com.kryeit.Database;
 import com.kryeit.merch.Order;
+import com.kryeit.merch.StockReservations;
 import com.kryeit.merch.StockUtils;
 import com.stripe.exception.SignatureVerificationException;
 import com.stripe.model.Event;
@@ -15,6 +16,7 @@ import java.sql.Types;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Optional;
 import java.util.UUID;
 
 public class PaymentHandler {
@@ -124,30 +126,37 @@ public class PaymentHandler {
                     }
                 }
 
-                // Insert the order, binding the cart array natively
+                // Insert the order and commit its stock in one transaction, so a failure
+                // leaves neither behind and Stripe's retry processes the session again
+                // (let exceptions bubble so Stripe will retry on failure)
                 UUID finalUuidValue = uuidValue;
-                long orderId = Database.getJdbi().withHandle(h ->
-                        h.createUpdate("""
-                        INSERT INTO orders
-                          (uuid, cart, destination, phone, status, transaction, email)
-                        VALUES
-                          (:uuid, :cart, :destination, :phone, :status, :tx, :email)
-                        RETURNING id
-                    """)
-                                .bindBySqlType("uuid", finalUuidValue, Types.OTHER)
-                                .bind("cart", productIds.toArray(new Long[0]))
-                                .bind("destination", destination)
-                                .bind("phone", phone)
-                                .bind("status", Order.Status.PENDING.toString())
-                                .bind("tx", sessionId)
-                                .bind("email", email)
-                                .executeAndReturnGeneratedKeys("id")
-                                .mapTo(Long.class)
-                                .one()
-                );
-
-                // Reduce stock (let exceptions bubble so Stripe will retry on failure)
-                StockUtils.reduceStock(productIds);
+                UUID holdId = parseHold(metadata);
+                Runnable afterCommit = Database.getJdbi().inTransaction(h -> {
+                    // Binding the cart array natively
+                    h.createUpdate("""
+                            INSERT INTO orders
+                              (uuid, cart, destination, phone, status, transaction, email)
+                            VALUES
+                              (:uuid, :cart, :destination, :phone, :status, :tx, :email)
+                            RETURNING id
+                            """)
+                            .bindBySqlType("uuid", finalUuidValue, Types.OTHER)
+                            .bind("cart", productIds.toArray(new Long[0]))
+                            .bind("destination", destination)
+                            .bind("phone", phone)
+                            .bind("status", Order.Status.PENDING.toString())
+                            .bind("tx", sessionId)
+                            .bind("email", email)
+                            .executeAndReturnGeneratedKeys("id")
+                            .mapTo(Long.class)
+                            .one();
+
+                    // Commit the stock held at checkout, or reduce it directly for sessions
+                    // without a hold or whose hold was already released
+                    Optional<Runnable> committed = holdId == null ? Optional.empty() : StockReservations.commit(h, holdId);
+                    return committed.orElseGet(() -> StockUtils.reduceStock(h, productIds));
+                });
+                afterCommit.run();
 
                 // Fulfill virtual products
                 if (uuidValue != null) {
@@ -173,8 +182,32 @@ public class PaymentHandler {
                 ctx.status(500).result("Error processing order: " + e.getMessage());
             }
 
+        } else if ("checkout.session.expired".equals(event.getType())) {
+            JSONObject metadata = new JSONObject(payload)
+                    .getJSONObject("data")
+                    .getJSONObject("object")
+                    .optJSONObject("metadata");
+
+            UUID holdId = metadata == null ? null : parseHold(metadata);
+            if (holdId != null) {
+                StockReservations.release(holdId);
+            }
+            ctx.status(200).result("Reservation released");
+
         } else {
             ctx.status(200).result("Event received");
         }
     }
+
+    private static UUID parseHold(JSONObject metadata) {
+        String hold = metadata.optString("hold", "");
+        if (hold.isBlank()) {
+            return null;
+        }
+        try {
+            return UUID.fromString(hold);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
 }
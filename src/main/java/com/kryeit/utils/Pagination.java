@@ -0,0 +1,90 @@
+package com.kryeit.utils;
+
+import io.javalin.http.BadRequestResponse;
+import io.javalin.http.Context;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.ToLongFunction;
+
+/**
+ * Keyset pagination on the id column, with optional column projection.
+ *
+ * Query Parameters:
+ * - after (optional): Only return rows with an id greater than this cursor (default is 0).
+ * - limit (optional): The maximum number of rows to return (default is 100, at most 500).
+ * - fields (optional): Comma separated list of fields to return. The id is always included.
+ *
+ * When more rows are available, the cursor of the next page is sent in the X-Next-Cursor header.
+ */
+public class Pagination {
+    public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+    public static final int DEFAULT_LIMIT = 100;
+    public static final int MAX_LIMIT = 500;
+
+    /**
+     * @param after the cursor, rows with an id greater than it are returned
+     * @param limit the page size
+     * @param columns the SQL select list
+     * @param projected whether the client narrowed the fields, in which case rows are mapped to maps
+     */
+    public record Page(long after, int limit, String columns, boolean projected) {
+
+        /**
+         * Trims the rows, which must be queried with a limit of one over the page size,
+         * sets the next cursor header when there is another page and responds with the rows.
+         *
+         * @param ctx the Javalin HTTP context
+         * @param rows the rows ordered by id
+         * @param id extracts the id of a row
+         */
+        public <T> void respond(Context ctx, List<T> rows, ToLongFunction<T> id) {
+            if (rows.size() > limit) {
+                rows = rows.subList(0, limit);
+                ctx.header(NEXT_CURSOR_HEADER, String.valueOf(id.applyAsLong(rows.get(limit - 1))));
+            }
+            ctx.json(rows);
+        }
+    }
+
+    /**
+     * Reads the pagination parameters of a request.
+     *
+     * @param ctx the Javalin HTTP context
+     * @param columns the selectable fields, mapped to their column names
+     * @return the requested page
+     */
+    public static Page fromRequest(Context ctx, Map<String, String> columns) {
+        long after = ctx.queryParamAsClass("after", Long.class).getOrDefault(0L);
+        int limit = ctx.queryParamAsClass("limit", Integer.class)
+                .check(l -> l > 0, "limit must be positive")
+                .getOrDefault(DEFAULT_LIMIT);
+        limit = Math.min(limit, MAX_LIMIT);
+
+        String fields = ctx.queryParam("fields");
+        if (fields == null || fields.isBlank()) {
+            return new Page(after, limit, String.join(", ", columns.values()), false);
+        }
+
+        Set<String> requested = new LinkedHashSet<>();
+        requested.add("id");
+        for (String field : fields.split(",")) {
+            String name = field.trim();
+            if (!columns.containsKey(name)) {
+                throw new BadRequestResponse("Unknown field: " + name);
+            }
+            requested.add(name);
+        }
+
+        // Aliases keep the JSON field names the same as the unprojected response
+        List<String> select = new ArrayList<>();
+        for (String name : requested) {
+            String column = columns.get(name);
+            select.add(column.equals(name) ? column : column + " AS \"" + name + "\"");
+        }
+        return new Page(after, limit, String.join(", ", select), true);
+    }
+}
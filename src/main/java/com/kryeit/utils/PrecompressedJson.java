@@ -0,0 +1,86 @@
+package com.kryeit.utils;
+
+import io.javalin.http.ContentType;
+import io.javalin.http.Context;
+import io.javalin.http.Header;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A JSON response that is serialized and gzip-compressed once and then
+ * written straight to the servlet response for every request.
+ *
+ * @param identity the serialized JSON
+ * @param gzip the serialized JSON, gzip-compressed
+ */
+public record PrecompressedJson(byte[] identity, byte[] gzip) {
+
+    public static PrecompressedJson of(Object value) {
+        try {
+            byte[] identity = Utils.JSON_MAPPER.toJsonString(value, value.getClass()).getBytes(StandardCharsets.UTF_8);
+
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(identity.length / 4 + 64);
+            try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+                gzip.write(identity);
+            }
+            return new PrecompressedJson(identity, compressed.toByteArray());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Writes the variant matching the request's Accept-Encoding, or answers
+     * 304 Not Modified when the request already carries its ETag.
+     * The raw servlet stream is used so Javalin does not compress the body again.
+     *
+     * @param ctx the Javalin HTTP context
+     * @param version the version the payload was built for, used as the ETag
+     */
+    public void write(Context ctx, String version) {
+        boolean useGzip = acceptsGzip(ctx.header(Header.ACCEPT_ENCODING));
+        // Strong ETags must differ between encodings of the same resource
+        String etag = "\"" + version + (useGzip ? "-gzip" : "") + "\"";
+
+        ctx.header(Header.VARY, Header.ACCEPT_ENCODING);
+        ctx.header(Header.CACHE_CONTROL, "no-cache");
+        ctx.header(Header.ETAG, etag);
+
+        if (Utils.matchesETag(ctx.header(Header.IF_NONE_MATCH), etag)) {
+            ctx.status(304);
+            return;
+        }
+
+        byte[] body = useGzip ? gzip : identity;
+        ctx.contentType(ContentType.APPLICATION_JSON);
+        if (useGzip) {
+            ctx.header(Header.CONTENT_ENCODING, "gzip");
+        }
+
+        try {
+            ctx.res().setContentLength(body.length);
+            ctx.res().getOutputStream().write(body);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.trim().split(";");
+            if (!parts[0].trim().equalsIgnoreCase("gzip")) continue;
+
+            // gzip;q=0 explicitly refuses the encoding
+            return parts.length < 2 || !parts[1].trim().matches("q=0(\\.0*)?");
+        }
+        return false;
+    }
+}
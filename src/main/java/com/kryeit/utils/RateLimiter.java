@@ -0,0 +1,179 @@
+package com.kryeit.utils;
+
+import com.kryeit.Config;
+import com.kryeit.auth.RequestPrincipal;
+import io.javalin.http.Context;
+import io.javalin.http.Handler;
+import io.javalin.http.HandlerType;
+import io.javalin.http.HttpResponseException;
+import io.javalin.http.HttpStatus;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Token bucket rate limiting for a group of routes, registered as a before-handler.
+ *
+ * Every key, an IP address or a user, gets its own bucket of {@code capacity} requests
+ * that refills at {@code perMinute}. Buckets are locked one by one, so requests of
+ * different keys never contend. Buckets that would be full again are evicted periodically.
+ */
+public class RateLimiter implements Handler {
+    private static final long EVICTION_INTERVAL_MINUTES = 1;
+    private static final long NANOS_PER_MINUTE = TimeUnit.MINUTES.toNanos(1);
+
+    private static final List<RateLimiter> LIMITERS = new CopyOnWriteArrayList<>();
+
+    private static final ScheduledExecutorService EVICTOR = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "rate-limit-evictor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static {
+        EVICTOR.scheduleWithFixedDelay(() -> LIMITERS.forEach(RateLimiter::evict),
+                EVICTION_INTERVAL_MINUTES, EVICTION_INTERVAL_MINUTES, TimeUnit.MINUTES);
+    }
+
+    private final String name;
+    private final int capacity;
+    private final double tokensPerNano;
+    private final Function<Context, String> key;
+
+    private final Map<String, Bucket> buckets = new ConcurrentHashMap<>();
+    private final LongAdder allowed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * @param name the name of the route group, as shown in the metrics
+     * @param capacity the number of requests allowed in a burst
+     * @param perMinute the number of requests allowed per minute after a burst
+     * @param key the key requests are counted by, such as {@link #byIp(Context)}
+     */
+    public RateLimiter(String name, int capacity, int perMinute, Function<Context, String> key) {
+        this.name = name;
+        this.capacity = capacity;
+        this.tokensPerNano = (double) perMinute / NANOS_PER_MINUTE;
+        this.key = key;
+        LIMITERS.add(this);
+    }
+
+    public static String byIp(Context ctx) {
+        return clientIp(ctx);
+    }
+
+    /**
+     * The IP address of the client. Requests coming from a trusted proxy are attributed to the
+     * closest address in X-Forwarded-For that is not a trusted proxy itself, anyone else could
+     * forge the header.
+     */
+    public static String clientIp(Context ctx) {
+        String peer = ctx.ip();
+        String forwardedFor = ctx.header("X-Forwarded-For");
+        if (forwardedFor == null || !Config.trustedProxies.contains(peer)) {
+            return peer;
+        }
+
+        // Proxies append the address they received the request from, so the client is read from the right
+        String[] hops = forwardedFor.split(",");
+        for (int i = hops.length - 1; i >= 0; i--) {
+            String hop = hops[i].trim();
+            if (!hop.isEmpty() && !Config.trustedProxies.contains(hop)) {
+                return hop;
+            }
+        }
+        return peer;
+    }
+
+    /**
+     * Counts requests by the logged-in user, and by IP address for anonymous requests.
+     */
+    public static String byPrincipal(Context ctx) {
+        try {
+            UUID uuid = RequestPrincipal.of(ctx).userId();
+            if (uuid != null) {
+                return uuid.toString();
+            }
+        } catch (RuntimeException ignored) {
+            // Invalid tokens are rejected by the route itself
+        }
+        return byIp(ctx);
+    }
+
+    @Override
+    public void handle(Context ctx) {
+        // CORS preflights carry no credentials and do no work
+        if (ctx.method() == HandlerType.OPTIONS) {
+            return;
+        }
+
+        Bucket bucket = buckets.computeIfAbsent(key.apply(ctx), k -> new Bucket(capacity, System.nanoTime()));
+        long waitNanos = bucket.tryAcquire(this, System.nanoTime());
+        if (waitNanos == 0) {
+            allowed.increment();
+            return;
+        }
+
+        rejected.increment();
+        ctx.header("Retry-After", String.valueOf(TimeUnit.NANOSECONDS.toSeconds(waitNanos) + 1));
+        throw new HttpResponseException(HttpStatus.TOO_MANY_REQUESTS.getCode(), "Too many requests, try again later");
+    }
+
+    private void evict() {
+        long now = System.nanoTime();
+        buckets.values().removeIf(bucket -> bucket.isFull(this, now));
+    }
+
+    public static Map<String, Object> metrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        for (RateLimiter limiter : LIMITERS) {
+            metrics.put(limiter.name, Map.of(
+                    "allowed", limiter.allowed.sum(),
+                    "rejected", limiter.rejected.sum(),
+                    "keys", limiter.buckets.size()
+            ));
+        }
+        return metrics;
+    }
+
+    private static class Bucket {
+        private double tokens;
+        private long refilled;
+
+        Bucket(double tokens, long refilled) {
+            this.tokens = tokens;
+            this.refilled = refilled;
+        }
+
+        /**
+         * @return 0 if a token was taken, otherwise the nanoseconds until one is available
+         */
+        synchronized long tryAcquire(RateLimiter limiter, long now) {
+            refill(limiter, now);
+            if (tokens >= 1) {
+                tokens--;
+                return 0;
+            }
+            return (long) Math.ceil((1 - tokens) / limiter.tokensPerNano);
+        }
+
+        synchronized boolean isFull(RateLimiter limiter, long now) {
+            refill(limiter, now);
+            return tokens >= limiter.capacity;
+        }
+
+        private void refill(RateLimiter limiter, long now) {
+            tokens = Math.min(limiter.capacity, tokens + (now - refilled) * limiter.tokensPerNano);
+            refilled = now;
+        }
+    }
+}
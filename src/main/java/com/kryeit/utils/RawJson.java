@@ -0,0 +1,35 @@
+package com.kryeit.utils;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+import java.io.IOException;
+
+/**
+ * JSON text read from the database, written into responses as is.
+ * It is never parsed, so it must come from a trusted source such as a JSONB column.
+ *
+ * @param json the JSON text
+ */
+@JsonSerialize(using = RawJson.Serializer.class)
+public record RawJson(String json) {
+    public static final RawJson EMPTY_OBJECT = new RawJson("{}");
+
+    @Override
+    public String toString() {
+        return json;
+    }
+
+    static class Serializer extends StdSerializer<RawJson> {
+        Serializer() {
+            super(RawJson.class);
+        }
+
+        @Override
+        public void serialize(RawJson value, JsonGenerator gen, SerializerProvider provider) throws IOException {
+            gen.writeRawValue(value.json());
+        }
+    }
+}
@@ -1,8 +1,12 @@
 package com.kryeit.utils;
 
 import io.javalin.http.Context;
+import io.javalin.json.JavalinJackson;
+import io.javalin.json.JsonMapper;
 
 public class Utils {
+    // The JSON mapper of the app, shared with responses serialized outside of a request
+    public static final JsonMapper JSON_MAPPER = new JavalinJackson();
 
     public static long getIdFromParam(Context ctx) {
         try {
@@ -21,4 +25,25 @@ public class Utils {
             return -1;
         }
     }
+
+    /**
+     * Checks an If-None-Match header against the current ETag of a resource.
+     *
+     * @param ifNoneMatch the If-None-Match header, may be null
+     * @param etag the current ETag, quoted
+     * @return true if the client already holds the current representation
+     */
+    public static boolean matchesETag(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.equals("*") || tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
 }